@@ -0,0 +1,124 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold start of {@link TimerMqWay}: each invocation launches a new JVM, which
+ * warms up (Jackson, codecs, Paho) and exits, i.e. the startup without the
+ * connection to the broker. Compares the default JVM against the runtime image
+ * and the class data sharing archive of the fast-start profile.
+ *
+ * @author reto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    /**
+     * The jar-with-dependencies of TimerMqWay
+     */
+    @Param("../target/ch.quantasy.timer.mqtt.gateway-1.0-SNAPSHOT-jar-with-dependencies.jar")
+    public String jar;
+
+    /**
+     * Java home to launch, empty for the one running the benchmark, i.e.
+     * ../target/runtime for the runtime image
+     */
+    @Param("")
+    public String javaHome;
+
+    /**
+     * Class data sharing archive, empty for none, i.e.
+     * ../target/TimerMqWay.jsa
+     */
+    @Param("")
+    public String archive;
+
+    private File output;
+
+    @Setup
+    public void setUp() throws IOException {
+        output = File.createTempFile("startup", ".log");
+        output.deleteOnExit();
+    }
+
+    @Benchmark
+    public int startup() throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        String home = javaHome.isEmpty() ? System.getProperty("java.home") : javaHome;
+        command.add(home + File.separator + "bin" + File.separator + "java");
+        if (!archive.isEmpty()) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-Dtimer.instance=benchmark");
+        command.add("-Dtimer.warmup.only=true");
+        command.add("-jar");
+        command.add(jar);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output).start();
+        int exitValue = process.waitFor();
+        if (exitValue != 0) {
+            throw new IllegalStateException("TimerMqWay exited with " + exitValue);
+        }
+        return exitValue;
+    }
+}
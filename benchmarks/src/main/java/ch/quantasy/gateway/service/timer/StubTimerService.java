@@ -0,0 +1,97 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.mqtt.gateway.client.MessageReceiver;
+import ch.quantasy.timer.SchedulerEngine;
+import java.net.URI;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link TimerService} which never connects to a broker. Publications are
+ * serialized as usual and then fed into a {@link Blackhole}.
+ *
+ * @author reto
+ */
+public class StubTimerService extends TimerService {
+
+    private Blackhole blackhole;
+
+    public StubTimerService(SchedulerEngine schedulerEngine) throws MqttException {
+        super(URI.create("tcp://127.0.0.1:1883"), "benchmark", schedulerEngine);
+    }
+
+    public void setBlackhole(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void connect() throws MqttException {
+    }
+
+    @Override
+    public void subscribe(String topic, MessageReceiver receiver) {
+    }
+
+    @Override
+    public void publishEvent(String topic, Object event) {
+        publish(topic, event);
+    }
+
+    @Override
+    public void publishStatus(String topic, Object status) {
+        publish(topic, status);
+    }
+
+    private void publish(String topic, Object value) {
+        try {
+            byte[] payload = getMapper().writeValueAsBytes(value);
+            if (blackhole != null) {
+                blackhole.consume(topic);
+                blackhole.consume(payload);
+            }
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
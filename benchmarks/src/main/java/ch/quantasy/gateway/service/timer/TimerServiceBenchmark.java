@@ -0,0 +1,112 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.timer.CapturingSchedulerEngine;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of a tick within the {@link TimerService}, i.e. topic lookup,
+ * serialization and (stubbed) publication, per id and batched.
+ *
+ * @author reto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    private int tickers;
+
+    @Param({"false", "true"})
+    private boolean batching;
+
+    private StubTimerService service;
+    private String[] ids;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws Exception {
+        service = new StubTimerService(new CapturingSchedulerEngine());
+        service.setBlackhole(blackhole);
+        if (batching) {
+            service.enableTickBatching(Long.MAX_VALUE / 2, 1000);
+            service.setPublishingTicksPerId(false);
+        }
+        ids = new String[tickers];
+        for (int i = 0; i < tickers; i++) {
+            ids[i] = "ticker" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.disableTickBatching();
+    }
+
+    @Benchmark
+    public void onTick() {
+        int i = index++;
+        if (index == tickers) {
+            index = 0;
+        }
+        service.onTick(ids[i], 1000L * i);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SchedulerEngine} which never runs anything but keeps the scheduled
+ * tasks, so the benchmarks can measure scheduling and dispatching separately.
+ *
+ * @author reto
+ */
+public class CapturingSchedulerEngine implements SchedulerEngine {
+
+    private final List<CapturedTask> tasks = new ArrayList<>();
+
+    @Override
+    public synchronized ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        CapturedTask capturedTask = new CapturedTask(task);
+        tasks.add(capturedTask);
+        return capturedTask;
+    }
+
+    @Override
+    public synchronized ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return schedule(task, initialDelay, unit);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     *
+     * @return all tasks scheduled so far and not cancelled
+     */
+    public synchronized Runnable[] getTasks() {
+        tasks.removeIf(CapturedTask::isCancelled);
+        return tasks.stream().map((task) -> task.task).toArray(Runnable[]::new);
+    }
+
+    public synchronized void clear() {
+        tasks.clear();
+    }
+
+    private static class CapturedTask implements ScheduledTask {
+
+        private final Runnable task;
+        private volatile boolean isCancelled;
+
+        public CapturedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel() {
+            boolean wasCancelled = isCancelled;
+            isCancelled = true;
+            return !wasCancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+    }
+}
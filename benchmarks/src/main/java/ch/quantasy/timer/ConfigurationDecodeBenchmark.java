@@ -0,0 +1,131 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jackson decode of the intent payloads, via ObjectMapper binding and via the
+ * streaming {@link DeviceTickerCodec}.
+ *
+ * @author reto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationDecodeBenchmark {
+
+    private ObjectMapper yamlMapper;
+    private ObjectMapper jsonMapper;
+    private DeviceTickerCodec yamlCodec;
+    private DeviceTickerCodec jsonCodec;
+    private byte[] yamlConfiguration;
+    private byte[] jsonConfiguration;
+    private byte[] yamlCancel;
+
+    @Setup
+    public void setUp() {
+        yamlMapper = createMapper(new ObjectMapper(new YAMLFactory()));
+        jsonMapper = createMapper(new ObjectMapper());
+        yamlCodec = new DeviceTickerCodec(new YAMLFactory());
+        jsonCodec = new DeviceTickerCodec(new JsonFactory());
+        yamlConfiguration = "---\nid: onceASecond\nepoch: 1490217038902\nfirst: 10000\ninterval: 1000\nlast: 20000\n".getBytes(StandardCharsets.UTF_8);
+        jsonConfiguration = "{\"id\":\"onceASecond\",\"epoch\":1490217038902,\"first\":10000,\"interval\":1000,\"last\":20000}".getBytes(StandardCharsets.UTF_8);
+        yamlCancel = "---\nid: onceASecond\n".getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ObjectMapper createMapper(ObjectMapper mapper) {
+        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return mapper;
+    }
+
+    @Benchmark
+    public DeviceTickerConfiguration yamlConfiguration() throws Exception {
+        return yamlMapper.readValue(yamlConfiguration, DeviceTickerConfiguration.class);
+    }
+
+    @Benchmark
+    public DeviceTickerConfiguration jsonConfiguration() throws Exception {
+        return jsonMapper.readValue(jsonConfiguration, DeviceTickerConfiguration.class);
+    }
+
+    @Benchmark
+    public DeviceTickerCancel yamlCancel() throws Exception {
+        return yamlMapper.readValue(yamlCancel, DeviceTickerCancel.class);
+    }
+
+    @Benchmark
+    public DeviceTickerConfiguration yamlConfigurationCodec() throws Exception {
+        return yamlCodec.readConfiguration(yamlConfiguration);
+    }
+
+    @Benchmark
+    public DeviceTickerConfiguration jsonConfigurationCodec() throws Exception {
+        return jsonCodec.readConfiguration(jsonConfiguration);
+    }
+
+    @Benchmark
+    public DeviceTickerCancel yamlCancelCodec() throws Exception {
+        return yamlCodec.readCancel(yamlCancel);
+    }
+}
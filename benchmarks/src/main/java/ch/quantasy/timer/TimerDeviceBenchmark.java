@@ -0,0 +1,179 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Configuration, cancel, dispatch and snapshot cost of the
+ * {@link TimerDevice} with a population of tickers. The engine only captures
+ * the tasks, so nothing is ticking in the background.
+ *
+ * @author reto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerDeviceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int tickers;
+
+    private CapturingSchedulerEngine engine;
+    private TimerDevice device;
+    private DeviceTickerConfiguration[] configurations;
+    private DeviceTickerConfiguration[] updates;
+    private DeviceTickerConfiguration[] deadlines;
+    private DeviceTickerConfiguration[] extendedDeadlines;
+    private Runnable[] tasks;
+    private int index;
+    private int insertIndex;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) {
+        engine = new CapturingSchedulerEngine();
+        device = new TimerDevice(new BlackholeTimerDeviceCallback(blackhole), engine);
+        configurations = new DeviceTickerConfiguration[tickers];
+        updates = new DeviceTickerConfiguration[tickers];
+        deadlines = new DeviceTickerConfiguration[tickers];
+        extendedDeadlines = new DeviceTickerConfiguration[tickers];
+        long epoch = System.currentTimeMillis();
+        for (int i = 0; i < tickers; i++) {
+            configurations[i] = new DeviceTickerConfiguration("ticker" + i, epoch, 0, 1000, null);
+            updates[i] = new DeviceTickerConfiguration("ticker" + i, null, null, 2000, null);
+            deadlines[i] = new DeviceTickerConfiguration("ticker" + i, null, null, null, 3600000);
+            extendedDeadlines[i] = new DeviceTickerConfiguration("ticker" + i, null, null, null, 7200000);
+            device.setTickerConfiguration(configurations[i]);
+        }
+        tasks = engine.getTasks();
+    }
+
+    private int next() {
+        int i = index++;
+        if (index == tickers) {
+            index = 0;
+        }
+        return i;
+    }
+
+    /**
+     * Inserts a new ticker into the populated device and cancels it again, so
+     * the population stays stable.
+     */
+    @Benchmark
+    public void insertAndCancel() {
+        String id = "inserted" + (insertIndex++ & 0xFFFF);
+        device.setTickerConfiguration(new DeviceTickerConfiguration(id, null, null, 1000, null));
+        device.cancel(new DeviceTickerCancel(id));
+    }
+
+    /**
+     * Changes the interval of an existing ticker back and forth.
+     */
+    @Benchmark
+    public void update() {
+        int i = next();
+        DeviceTickerConfiguration update = updates[i];
+        updates[i] = configurations[i];
+        configurations[i] = update;
+        device.setTickerConfiguration(update);
+    }
+
+    /**
+     * Moves the last tick of an existing ticker back and forth, as clients
+     * extending their lease do.
+     */
+    @Benchmark
+    public void deadlineUpdate() {
+        int i = next();
+        DeviceTickerConfiguration deadline = deadlines[i];
+        deadlines[i] = extendedDeadlines[i];
+        extendedDeadlines[i] = deadline;
+        device.setTickerConfiguration(deadline);
+    }
+
+    /**
+     * Sends the very same configuration again.
+     */
+    @Benchmark
+    public void idempotentUpdate() {
+        device.setTickerConfiguration(configurations[next()]);
+    }
+
+    /**
+     * Runs the scheduled tasks round robin, i.e. the cost of one tick without
+     * the scheduler.
+     */
+    @Benchmark
+    public void tickDispatch() {
+        tasks[next() % tasks.length].run();
+    }
+
+    @Benchmark
+    public Object tickerMapView() {
+        return device.getTickerMap();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void tickerMapIteration(Blackhole blackhole) {
+        for (String id : device.getTickerMap().keySet()) {
+            blackhole.consume(id);
+        }
+    }
+}
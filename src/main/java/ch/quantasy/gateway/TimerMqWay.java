@@ -41,14 +41,40 @@
  */
 package ch.quantasy.gateway;
 
+import ch.quantasy.gateway.service.timer.ClientQuotas;
+import ch.quantasy.gateway.service.timer.TimerCluster;
 import ch.quantasy.gateway.service.timer.TimerService;
+import ch.quantasy.timer.CoalescingSchedulerEngine;
+import ch.quantasy.timer.DeviceTickerCancel;
+import ch.quantasy.timer.DeviceTickerCodec;
+import ch.quantasy.timer.DeviceTickerConfiguration;
+import ch.quantasy.timer.ExecutorSchedulerEngine;
+import ch.quantasy.timer.PrecisionSchedulerEngine;
+import ch.quantasy.timer.SchedulerEngine;
+import ch.quantasy.timer.TickDispatcher;
+import ch.quantasy.timer.TickerJournal;
+import ch.quantasy.timer.TieredSchedulerEngine;
+import ch.quantasy.timer.TimerDevice;
+import ch.quantasy.timer.TimingWheelSchedulerEngine;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URI;
+import java.nio.file.Paths;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 /**
  *
@@ -58,16 +84,19 @@ public class TimerMqWay {
 
     public static String computerName;
 
-    static {
-        try {
-            computerName = java.net.InetAddress.getLocalHost().getHostName();
-        } catch (UnknownHostException ex) {
-            Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
-            computerName = "undefined";
-        }
-    }
-
     public static void main(String[] args) throws MqttException, InterruptedException, JsonProcessingException, IOException {
+        long start = System.nanoTime();
+        //The (possibly slow) name lookup and the warm-up run while the arguments are evaluated
+        CompletableFuture<String> instanceName = resolveInstanceName();
+        CompletableFuture<Void> warmUp = Boolean.parseBoolean(System.getProperty("timer.warmup", "true"))
+                ? CompletableFuture.runAsync(TimerMqWay::warmUp) : CompletableFuture.completedFuture(null);
+        if (Boolean.getBoolean("timer.warmup.only")) {
+            //Training run for the class data sharing archive and the startup benchmark
+            warmUp.join();
+            computerName = instanceName.join();
+            System.out.printf("%s warmed up in %d ms.\n", computerName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return;
+        }
         URI mqttURI = URI.create("tcp://127.0.0.1:1883");
         if (args.length > 0) {
             mqttURI = URI.create(args[0]);
@@ -75,8 +104,141 @@ public class TimerMqWay {
             System.out.printf("Per default, 'tcp://127.0.0.1:1883' is chosen.\nYou can provide another address as first argument i.e.: tcp://iot.eclipse.org:1883\n");
         }
         System.out.printf("\n%s will be used as broker address.\n", mqttURI);
+        computerName = instanceName.join();
 
-        TimerService s = new TimerService(mqttURI,computerName);
+        int shards = Integer.getInteger("timer.shards", 1);
+        String clusterName = System.getProperty("timer.cluster");
+        //The journal is replayed before the intents are subscribed
+        String journalDirectory = System.getProperty("timer.journal");
+        TickerJournal journal = journalDirectory == null ? null
+                : new TickerJournal(Paths.get(journalDirectory), Integer.getInteger("timer.journal.segment", 64 * 1024 * 1024));
+        long compactionPeriod = Long.getLong("timer.journal.compaction", 60000);
+        TimerService s;
+        if (clusterName != null) {
+            TimerCluster cluster = new TimerCluster(System.getProperty("timer.cluster.node", computerName), Long.getLong("timer.cluster.timeout", 3000));
+            s = new TimerService(mqttURI, clusterName, cluster, shards, () -> createSchedulerEngine(shards > 1 ? 1 : Runtime.getRuntime().availableProcessors()),
+                    journal, compactionPeriod);
+            System.out.printf("Node %s joins the cluster %s.\n", cluster.getNode(), clusterName);
+        } else if (shards > 1) {
+            s = new TimerService(mqttURI, computerName, null, shards, () -> createSchedulerEngine(1), journal, compactionPeriod);
+            System.out.printf("Tickers are partitioned into %d shards.\n", shards);
+        } else {
+            SchedulerEngine schedulerEngine = createSchedulerEngine(Runtime.getRuntime().availableProcessors());
+            System.out.printf("%s will be used as scheduler engine.\n", schedulerEngine.getClass().getSimpleName());
+            s = new TimerService(mqttURI, computerName, null, 1, () -> schedulerEngine, journal, compactionPeriod);
+        }
+        if (journal != null) {
+            System.out.printf("Tickers are journaled in %s.\n", journalDirectory);
+        }
+        s.setStatisticsPeriod(Long.getLong("timer.statistics.period", 10000));
+        s.setStatusWindow(Long.getLong("timer.status.window", 0));
+        int dispatcherThreads = Integer.getInteger("timer.dispatcher.threads", 0);
+        if (dispatcherThreads > 0) {
+            s.setDispatcher(new TickDispatcher(dispatcherThreads, Integer.getInteger("timer.dispatcher.capacity", 10000),
+                    TickDispatcher.OverflowPolicy.valueOf(System.getProperty("timer.dispatcher.overflow", "DROP_OLDEST"))));
+            System.out.printf("Ticks are delivered by %d dispatcher threads.\n", dispatcherThreads);
+        }
+        String overloadPolicy = System.getProperty("timer.overload");
+        if (overloadPolicy != null) {
+            s.setOverloadPolicy(TimerDevice.OverloadPolicy.valueOf(overloadPolicy), Long.getLong("timer.overload.maxLag", 1000));
+            System.out.printf("Lagging ticks are handled by %s.\n", overloadPolicy);
+        }
+        int maxTickers = Integer.getInteger("timer.quota.tickers", 0);
+        long minInterval = Long.getLong("timer.quota.minInterval", 0);
+        double maxTickRate = Double.parseDouble(System.getProperty("timer.quota.tickRate", "0"));
+        double intentRate = Double.parseDouble(System.getProperty("timer.quota.intentRate", "0"));
+        if (maxTickers > 0 || minInterval > 0 || maxTickRate > 0 || intentRate > 0) {
+            s.setQuotas(new ClientQuotas(maxTickers, minInterval, maxTickRate, intentRate,
+                    Integer.getInteger("timer.quota.intentBurst", (int) Math.max(1, intentRate)), Integer.getInteger("timer.quota.clients", 10000)));
+            System.out.printf("Clients are limited to %d tickers, %d ms interval, %.1f ticks/s and %.1f intents/s (0: unlimited).\n", maxTickers, minInterval, maxTickRate, intentRate);
+        }
+        long batchWindow = Long.getLong("timer.batch.window", 0);
+        if (batchWindow > 0) {
+            s.enableTickBatching(batchWindow, Integer.getInteger("timer.batch.max", 1000));
+            s.setPublishingTicksPerId(Boolean.parseBoolean(System.getProperty("timer.tick.perId", "true")));
+            System.out.printf("Ticks will be batched every %d ms.\n", batchWindow);
+        }
+        System.out.printf("Started in %d ms.\n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         System.in.read();
     }
+
+    /**
+     * The instance is named by the system property 'timer.instance'. Only if
+     * it is missing, the name of the host is looked up, which may block for
+     * seconds if the name service is slow, hence in the background.
+     */
+    private static CompletableFuture<String> resolveInstanceName() {
+        String instance = System.getProperty("timer.instance");
+        if (instance != null) {
+            return CompletableFuture.completedFuture(instance);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException ex) {
+                Logger.getLogger(TimerMqWay.class.getName()).log(Level.SEVERE, null, ex);
+                return "undefined";
+            }
+        });
+    }
+
+    /**
+     * Loads and initializes Jackson, the codecs and Paho by a round trip of a
+     * configuration, so the first intents do not pay for it.
+     */
+    private static void warmUp() {
+        try {
+            ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+            mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+            mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            DeviceTickerConfiguration configuration = new DeviceTickerConfiguration("warmUp", 0L, 0, 1000, 1000);
+            byte[] payload = mapper.writeValueAsBytes(configuration);
+            mapper.readValue(payload, DeviceTickerConfiguration.class);
+            DeviceTickerCodec codec = new DeviceTickerCodec(mapper.getFactory());
+            codec.readConfiguration(payload);
+            codec.readCancel(mapper.writeValueAsBytes(new DeviceTickerCancel("warmUp")));
+            new MqttConnectOptions();
+            new MemoryPersistence();
+            MqttClient.generateClientId();
+        } catch (IOException ex) {
+            Logger.getLogger(TimerMqWay.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * The engine is selected by the system property 'timer.engine' [executor|wheel|precision].
+     * The resolution of the wheel is set by 'timer.wheel.tick' in ms.
+     * The precision engine spins for the last 'timer.precision.spin' us before a tick.
+     * Tickers sharing interval and phase are coalesced if 'timer.coalescing'
+     * is true, as a slow callback then delays its whole group.
+     * 'timer.coalescing.tolerance' in ms allows to postpone the first
+     * tick in order to join a group, shifting the phase of all following
+     * ticks alike. The precision engine is never coalesced.
+     * Tickers due more than 'timer.tier.boundary' ms ahead wait in coarse buckets
+     * of 'timer.tier.resolution' ms (default 1000) and only enter the engine
+     * shortly before they are due. Without a boundary, there is a single tier.
+     * With 'timer.shards' greater than 1, each shard gets its own engine.
+     *
+     * @param threads threads of the executor engine
+     */
+    private static SchedulerEngine createSchedulerEngine(int threads) {
+        String engine = System.getProperty("timer.engine", "executor");
+        SchedulerEngine schedulerEngine;
+        boolean isPrecision = "precision".equalsIgnoreCase(engine);
+        if ("wheel".equalsIgnoreCase(engine)) {
+            schedulerEngine = new TimingWheelSchedulerEngine(Long.getLong("timer.wheel.tick", 1), TimeUnit.MILLISECONDS);
+        } else if (isPrecision) {
+            schedulerEngine = new PrecisionSchedulerEngine(Long.getLong("timer.precision.spin", 200), TimeUnit.MICROSECONDS);
+        } else {
+            schedulerEngine = new ExecutorSchedulerEngine(threads);
+        }
+        long tierBoundary = Long.getLong("timer.tier.boundary", 0);
+        if (tierBoundary > 0) {
+            schedulerEngine = new TieredSchedulerEngine(schedulerEngine, tierBoundary, Long.getLong("timer.tier.resolution", 1000), TimeUnit.MILLISECONDS);
+        }
+        if (!isPrecision && Boolean.parseBoolean(System.getProperty("timer.coalescing", "false"))) {
+            schedulerEngine = new CoalescingSchedulerEngine(schedulerEngine, Long.getLong("timer.coalescing.tolerance", 0));
+        }
+        return schedulerEngine;
+    }
 }
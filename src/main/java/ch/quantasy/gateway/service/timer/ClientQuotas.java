@@ -0,0 +1,558 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.timer.DeviceTickerConfiguration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Quotas per client, so a single client cannot starve the timer for all the
+ * others. The client is the intending party named at the end of the intent
+ * topic (i.e. 'quickshot' in Timer/Tick/U/matrix/I/configuration/quickshot)
+ * or, if the topic does not name one, the prefix of the id up to its first
+ * '/'. As MQTT does not tell who published, the client is the one it claims
+ * to be. Hence the quotas protect from clients misbehaving by accident, but a
+ * client claiming ever new names gets ever new quotas. Clients holding
+ * neither tickers nor a partly emptied bucket are evicted, so these names do
+ * not pile up. Beyond the maximum of clients, the intents of new clients are
+ * accounted to one shared overflow client.
+ *
+ * Each intent message of a client takes a token of its bucket, which is
+ * refilled at the intent rate up to the burst. A bulk takes a single token for
+ * all its configurations. A configuration is admitted if its
+ * interval is not below the minimum interval and the client stays within its
+ * maximum of tickers and its maximum aggregate tick rate. The accounting is
+ * done by atomic counters per client, hence it does not lock. The intents are
+ * expected to be admitted one after the other (as MQTT delivers them), while
+ * the tickers may be released concurrently.
+ *
+ * @author reto
+ */
+public class ClientQuotas {
+
+    public enum Rejection {
+        /**
+         * The intent exceeds the intent rate of the client
+         */
+        INTENT_RATE,
+        /**
+         * The interval is below the minimum interval
+         */
+        MIN_INTERVAL,
+        /**
+         * The client already has its maximum of tickers
+         */
+        TICKERS,
+        /**
+         * The ticker would exceed the maximum aggregate tick rate of the client
+         */
+        TICK_RATE
+    }
+
+    static final String DEFAULT_CLIENT = "default";
+    static final String OVERFLOW_CLIENT = "overflow";
+    private static final long SWEEP_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long REPORT_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxTickers;
+    private final long minIntervalMillis;
+    /**
+     * Maximum aggregate tick rate in ticks per 1000 s
+     */
+    private final long maxTickRate;
+    /**
+     * Time in ns a token takes to be refilled
+     */
+    private final long intentEmissionNanos;
+    private final long intentBurstNanos;
+    private final Map<String, Client> clients;
+    /**
+     * Admitted tickers by their id
+     */
+    private final Map<String, Admission> admissions;
+    /**
+     * Admitted subscriptions by the id of their subscriber
+     */
+    private final Map<String, Admission> subscriptionAdmissions;
+    private final LongAdder rejections;
+    private final int maxClients;
+    private final Client overflowClient;
+    private long lastSweep;
+
+    /**
+     *
+     * @param maxTickers maximum of tickers per client, 0 for no limit
+     * @param minIntervalMillis minimum interval in ms, 0 for no limit
+     * @param maxTickRate maximum of ticks per second of all tickers of a
+     * client, 0 for no limit. A cron ticker is accounted for one tick per
+     * minute.
+     * @param intentRate intents per second of a client, 0 for no limit
+     * @param intentBurst intents a client may send at once after being idle
+     */
+    public ClientQuotas(int maxTickers, long minIntervalMillis, double maxTickRate, double intentRate, int intentBurst) {
+        this(maxTickers, minIntervalMillis, maxTickRate, intentRate, intentBurst, 10000);
+    }
+
+    /**
+     *
+     * @param maxTickers maximum of tickers per client, 0 for no limit
+     * @param minIntervalMillis minimum interval in ms, 0 for no limit
+     * @param maxTickRate maximum of ticks per second of all tickers of a
+     * client, 0 for no limit. A cron ticker is accounted for one tick per
+     * minute.
+     * @param intentRate intents per second of a client, 0 for no limit
+     * @param intentBurst intents a client may send at once after being idle
+     * @param maxClients clients tracked at most, the intents of further
+     * clients sharing the quotas of the overflow client
+     */
+    public ClientQuotas(int maxTickers, long minIntervalMillis, double maxTickRate, double intentRate, int intentBurst, int maxClients) {
+        this.maxTickers = maxTickers;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxTickRate = (long) (maxTickRate * 1000);
+        this.intentEmissionNanos = intentRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / intentRate) : 0;
+        this.intentBurstNanos = intentEmissionNanos * Math.max(intentBurst - 1, 0);
+        this.clients = new ConcurrentHashMap<>();
+        this.admissions = new ConcurrentHashMap<>();
+        this.subscriptionAdmissions = new ConcurrentHashMap<>();
+        this.rejections = new LongAdder();
+        this.maxClients = maxClients;
+        this.overflowClient = new Client();
+        this.lastSweep = System.nanoTime() - SWEEP_PERIOD_NANOS;
+    }
+
+    /**
+     *
+     * @param party intending party named at the end of the intent topic,
+     * empty or null if none is named
+     * @param id id of the ticker
+     * @return the client the intent is accounted to
+     */
+    static String getClient(String party, String id) {
+        if (party != null && !party.isEmpty()) {
+            return party;
+        }
+        int separator = id == null ? -1 : id.indexOf('/');
+        if (separator > 0) {
+            return id.substring(0, separator);
+        }
+        return DEFAULT_CLIENT;
+    }
+
+    /**
+     * Charges an intent message to the intent rate of the client. A message
+     * is charged once, whatever number of configurations it carries, while
+     * each configuration is still admitted against the tickers and the tick
+     * rate of the client.
+     *
+     * @param client
+     * @return null if admitted, otherwise the reason of the rejection
+     */
+    Rejection admitIntent(String client) {
+        Client quota = getClientQuota(client);
+        if (!quota.takeIntentToken(System.nanoTime())) {
+            return reject(quota, Rejection.INTENT_RATE);
+        }
+        return null;
+    }
+
+    /**
+     * Admits the subscription of an id to a shared ticker and accounts it to
+     * the client like a ticker of its own, until it is released. Otherwise,
+     * the client could create any number of shared tickers by varying their
+     * timing parameters.
+     *
+     * @param client
+     * @param configuration timing parameters of the shared ticker
+     * @return null if admitted, otherwise the reason of the rejection
+     */
+    Rejection admitSubscription(String client, DeviceTickerConfiguration configuration) {
+        return admit(subscriptionAdmissions, client, configuration.getId(), configuration.getInterval(), configuration.getCron());
+    }
+
+    /**
+     * Releases the subscription from the quota of its client, as it has been
+     * cancelled or its shared ticker has been removed.
+     *
+     * @param subscriberId
+     */
+    void releaseSubscription(String subscriberId) {
+        release(subscriptionAdmissions, subscriberId);
+    }
+
+    /**
+     * Admits the configuration of a ticker and accounts it to the client
+     * until it is released. As a configuration only overrides the fields it
+     * sets, the configuration is charged as merged with the one the ticker
+     * runs. The update of an admitted ticker is only charged the difference
+     * of its tick rate.
+     *
+     * @param client
+     * @param configuration
+     * @param running configuration the ticker runs, null if unknown (i.e. on
+     * a node not owning the ticker), in which case the configuration is
+     * merged with the admitted one
+     * @return null if admitted, otherwise the reason of the rejection
+     */
+    Rejection admit(String client, DeviceTickerConfiguration configuration, DeviceTickerConfiguration running) {
+        Admission old = admissions.get(configuration.getId());
+        Integer interval = configuration.getInterval();
+        String cron = configuration.getCron();
+        if (running != null) {
+            interval = interval == null ? running.getInterval() : interval;
+            cron = cron == null ? running.getCron() : cron;
+        } else if (old != null) {
+            interval = interval == null ? old.interval : interval;
+            cron = cron == null ? old.cron : cron;
+        }
+        return admit(admissions, client, configuration.getId(), interval, cron);
+    }
+
+    private Rejection admit(Map<String, Admission> admissions, String client, String id, Integer interval, String cron) {
+        Admission old = admissions.get(id);
+        cron = cron == null || cron.isEmpty() ? null : cron;
+        Client quota = getClientQuota(client);
+        Rejection rejection = check(interval, cron);
+        if (rejection != null) {
+            return reject(quota, rejection);
+        }
+        long tickRate = getTickRate(interval, cron);
+        boolean isNew = old == null || old.client != quota;
+        if (isNew && !quota.tickers.reserve(maxTickers)) {
+            return reject(quota, Rejection.TICKERS);
+        }
+        long additionalTickRate = isNew ? tickRate : tickRate - old.tickRate;
+        if (additionalTickRate > 0 && !quota.tickRate.reserve(additionalTickRate, maxTickRate)) {
+            if (isNew) {
+                quota.tickers.decrement();
+            }
+            return reject(quota, Rejection.TICK_RATE);
+        }
+        if (additionalTickRate < 0) {
+            quota.tickRate.add(additionalTickRate);
+        }
+        Admission replaced = admissions.put(id, new Admission(quota, tickRate, interval, cron));
+        if (old != null) {
+            if (replaced == old) {
+                if (isNew) {
+                    old.client.release(old.tickRate);
+                }
+            } else if (!isNew) {
+                //Released meanwhile, although the reservation relied on it
+                quota.tickers.increment();
+                quota.tickRate.add(old.tickRate);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Releases the ticker from the quota of its client, as it has been
+     * cancelled or removed by itself.
+     *
+     * @param id
+     */
+    void release(String id) {
+        release(admissions, id);
+    }
+
+    private static void release(Map<String, Admission> admissions, String id) {
+        if (id == null) {
+            return;
+        }
+        Admission admission = admissions.remove(id);
+        if (admission != null) {
+            admission.client.release(admission.tickRate);
+        }
+    }
+
+    /**
+     *
+     * @param client
+     * @return true if the rejections of the client are to be reported now,
+     * which is at most once per second
+     */
+    boolean isReportDue(String client) {
+        Client quota = getClientQuota(client);
+        long now = System.nanoTime();
+        long lastReport = quota.lastReport.get();
+        return now - lastReport >= REPORT_PERIOD_NANOS && quota.lastReport.compareAndSet(lastReport, now);
+    }
+
+    /**
+     *
+     * @param client
+     * @return rejections of the client so far
+     */
+    long getRejections(String client) {
+        return getClientQuota(client).rejections.sum();
+    }
+
+    /**
+     *
+     * @return rejections of all clients so far
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     *
+     * @param client
+     * @return tickers accounted to the client
+     */
+    public int getTickers(String client) {
+        Client quota = clients.get(client);
+        return quota == null ? 0 : quota.tickers.get();
+    }
+
+    /**
+     *
+     * @return clients currently tracked, without the overflow client
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Called on the intent thread only, hence the eviction never races with
+     * an admission.
+     */
+    private Client getClientQuota(String client) {
+        Client quota = clients.get(client);
+        if (quota != null) {
+            return quota;
+        }
+        if (OVERFLOW_CLIENT.equals(client)) {
+            return overflowClient;
+        }
+        if (clients.size() >= maxClients) {
+            evictIdleClients();
+            if (clients.size() >= maxClients) {
+                return overflowClient;
+            }
+        }
+        return clients.computeIfAbsent(client, (name) -> new Client());
+    }
+
+    /**
+     * Evicts the clients holding no tickers and a full bucket, as a client
+     * created anew would be in the very same state. Sweeps at most once per
+     * second.
+     */
+    private void evictIdleClients() {
+        long now = System.nanoTime();
+        if (now - lastSweep < SWEEP_PERIOD_NANOS) {
+            return;
+        }
+        lastSweep = now;
+        clients.values().removeIf((quota) -> quota.isIdle(now));
+    }
+
+    private Rejection check(Integer interval, String cron) {
+        if (cron == null && interval != null && interval > 0 && interval < minIntervalMillis) {
+            return Rejection.MIN_INTERVAL;
+        }
+        return null;
+    }
+
+    private Rejection reject(Client quota, Rejection rejection) {
+        if (rejection != null) {
+            quota.rejections.increment();
+            rejections.increment();
+        }
+        return rejection;
+    }
+
+    /**
+     *
+     * @return ticks per 1000 s, rounded up
+     */
+    private static long getTickRate(Integer interval, String cron) {
+        if (cron != null) {
+            return (1000 + 59) / 60;
+        }
+        if (interval == null || interval < 1) {
+            return 0;
+        }
+        return (1000000L + interval - 1) / interval;
+    }
+
+    private final class Client {
+
+        private final BoundedInteger tickers;
+        private final BoundedLong tickRate;
+        /**
+         * Theoretical arrival time in ns of the next intent, the bucket being
+         * empty as long as it lies beyond the burst
+         */
+        private final AtomicLong intentArrival;
+        private final AtomicLong lastReport;
+        private final LongAdder rejections;
+
+        private Client() {
+            tickers = new BoundedInteger();
+            tickRate = new BoundedLong();
+            long now = System.nanoTime();
+            intentArrival = new AtomicLong(now);
+            lastReport = new AtomicLong(now - REPORT_PERIOD_NANOS);
+            rejections = new LongAdder();
+        }
+
+        private boolean takeIntentToken(long nowNanos) {
+            if (intentEmissionNanos <= 0) {
+                return true;
+            }
+            while (true) {
+                long arrival = intentArrival.get();
+                long earliest = arrival - nowNanos > 0 ? arrival : nowNanos;
+                if (earliest - nowNanos > intentBurstNanos) {
+                    return false;
+                }
+                if (intentArrival.compareAndSet(arrival, earliest + intentEmissionNanos)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isIdle(long nowNanos) {
+            return tickers.get() == 0 && tickRate.get() == 0 && intentArrival.get() - nowNanos <= 0;
+        }
+
+        private void release(long releasedTickRate) {
+            tickers.decrement();
+            tickRate.add(-releasedTickRate);
+        }
+    }
+
+    private static final class Admission {
+
+        private final Client client;
+        private final long tickRate;
+        private final Integer interval;
+        private final String cron;
+
+        private Admission(Client client, long tickRate, Integer interval, String cron) {
+            this.client = client;
+            this.tickRate = tickRate;
+            this.interval = interval;
+            this.cron = cron;
+        }
+    }
+
+    private static final class BoundedInteger {
+
+        private final AtomicInteger value = new AtomicInteger();
+
+        /**
+         *
+         * @param max 0 for no limit
+         * @return true if incremented without exceeding the maximum
+         */
+        private boolean reserve(int max) {
+            if (max <= 0) {
+                value.incrementAndGet();
+                return true;
+            }
+            while (true) {
+                int current = value.get();
+                if (current >= max) {
+                    return false;
+                }
+                if (value.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private int get() {
+            return value.get();
+        }
+
+        private void increment() {
+            value.incrementAndGet();
+        }
+
+        private void decrement() {
+            value.decrementAndGet();
+        }
+    }
+
+    private static final class BoundedLong {
+
+        private final AtomicLong value = new AtomicLong();
+
+        /**
+         *
+         * @param delta
+         * @param max 0 for no limit
+         * @return true if added without exceeding the maximum
+         */
+        private boolean reserve(long delta, long max) {
+            if (max <= 0) {
+                value.addAndGet(delta);
+                return true;
+            }
+            while (true) {
+                long current = value.get();
+                if (current + delta > max) {
+                    return false;
+                }
+                if (value.compareAndSet(current, current + delta)) {
+                    return true;
+                }
+            }
+        }
+
+        private long get() {
+            return value.get();
+        }
+
+        private void add(long delta) {
+            value.addAndGet(delta);
+        }
+    }
+}
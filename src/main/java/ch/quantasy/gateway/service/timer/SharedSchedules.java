@@ -0,0 +1,252 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.timer.DeviceTickerConfiguration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reference counts of the shared schedules. Subscriptions with identical
+ * timing parameters are mapped onto one shared ticker, whose id is derived
+ * from these parameters, so all nodes of a cluster derive the same id. The
+ * shared ticker is to be created with its first subscriber and cancelled with
+ * its last one. Not thread-safe, the {@link TimerService} synchronizes on the
+ * instance.
+ *
+ * @author reto
+ */
+class SharedSchedules {
+
+    /**
+     * Prefix of the ids of the shared tickers, which hence tick on
+     * {@link TimerServiceContract#EVENT_TICK}/shared/&lt;schedule&gt;
+     */
+    static final String PREFIX = "shared/";
+
+    /**
+     * Subscribers per shared ticker id
+     */
+    private final Map<String, Set<String>> schedules;
+    /**
+     * Timing parameters per shared ticker id, in order to detect hash
+     * collisions
+     */
+    private final Map<String, String> keys;
+    /**
+     * Timing parameters per shared ticker id, as subscribed
+     */
+    private final Map<String, DeviceTickerConfiguration> timings;
+    /**
+     * Shared ticker id per subscriber
+     */
+    private final Map<String, String> subscriptions;
+
+    SharedSchedules() {
+        schedules = new HashMap<>();
+        keys = new HashMap<>();
+        timings = new HashMap<>();
+        subscriptions = new HashMap<>();
+    }
+
+    static boolean isShared(String id) {
+        return id != null && id.startsWith(PREFIX);
+    }
+
+    /**
+     *
+     * @param configuration
+     * @return id of the shared ticker ticking with the timing parameters of
+     * the configuration. Without an epoch, the subscription joins the phase
+     * of the existing shared ticker.
+     */
+    String getScheduleId(DeviceTickerConfiguration configuration) {
+        //An empty cron expression stands for fixed-rate ticks, as no cron expression does
+        String cron = configuration.getCron() == null || configuration.getCron().isEmpty() ? null : configuration.getCron();
+        String key = configuration.getEpoch() + "|" + configuration.getFirst() + "|" + configuration.getInterval() + "|" + configuration.getLast()
+                + "|" + cron + "|" + configuration.getZone();
+        String base = PREFIX + Long.toHexString(ConsistentHashRing.hash(key));
+        String id = base;
+        for (int i = 1; keys.containsKey(id) && !keys.get(id).equals(key); i++) {
+            id = base + "-" + i;
+        }
+        if (keys.putIfAbsent(id, key) == null) {
+            DeviceTickerConfiguration timing = new DeviceTickerConfiguration(id, configuration.getEpoch(), configuration.getFirst(), configuration.getInterval(), configuration.getLast());
+            timing.setCron(cron);
+            timing.setZone(configuration.getZone());
+            timings.put(id, timing);
+        }
+        return id;
+    }
+
+    /**
+     *
+     * @param subscriberId
+     * @return id of the shared ticker the subscriber is subscribed to, null if
+     * none
+     */
+    String getSchedule(String subscriberId) {
+        return subscriptions.get(subscriberId);
+    }
+
+    /**
+     *
+     * @param subscriberId
+     * @param scheduleId
+     * @return true if this is the first subscriber, hence the shared ticker is
+     * to be created
+     */
+    boolean subscribe(String subscriberId, String scheduleId) {
+        subscriptions.put(subscriberId, scheduleId);
+        Set<String> subscribers = schedules.get(scheduleId);
+        if (subscribers == null) {
+            subscribers = new HashSet<>();
+            schedules.put(scheduleId, subscribers);
+        }
+        subscribers.add(subscriberId);
+        return subscribers.size() == 1;
+    }
+
+    /**
+     *
+     * @param subscriberId
+     * @return id of the shared ticker if this was its last subscriber, hence
+     * the shared ticker is to be cancelled, otherwise null
+     */
+    String unsubscribe(String subscriberId) {
+        String scheduleId = subscriptions.remove(subscriberId);
+        if (scheduleId == null) {
+            return null;
+        }
+        Set<String> subscribers = schedules.get(scheduleId);
+        if (subscribers != null) {
+            subscribers.remove(subscriberId);
+            if (!subscribers.isEmpty()) {
+                return null;
+            }
+        }
+        schedules.remove(scheduleId);
+        keys.remove(scheduleId);
+        timings.remove(scheduleId);
+        return scheduleId;
+    }
+
+    /**
+     * Drops a shared ticker which has been removed by itself (i.e. its last
+     * tick has passed).
+     *
+     * @param scheduleId
+     * @return the former subscribers
+     */
+    List<String> removeSchedule(String scheduleId) {
+        keys.remove(scheduleId);
+        timings.remove(scheduleId);
+        Set<String> subscribers = schedules.remove(scheduleId);
+        if (subscribers == null) {
+            return Collections.emptyList();
+        }
+        for (String subscriberId : subscribers) {
+            if (Objects.equals(subscriptions.get(subscriberId), scheduleId)) {
+                subscriptions.remove(subscriberId);
+            }
+        }
+        return new ArrayList<>(subscribers);
+    }
+
+    /**
+     *
+     * @param subscriberId
+     * @return the timing parameters the subscriber subscribed, with its id,
+     * null if not subscribed
+     */
+    DeviceTickerConfiguration getSubscription(String subscriberId) {
+        String scheduleId = subscriptions.get(subscriberId);
+        DeviceTickerConfiguration timing = scheduleId == null ? null : timings.get(scheduleId);
+        if (timing == null) {
+            return null;
+        }
+        DeviceTickerConfiguration subscription = new DeviceTickerConfiguration(subscriberId, timing.getEpoch(), timing.getFirst(), timing.getInterval(), timing.getLast());
+        subscription.setCron(timing.getCron());
+        subscription.setZone(timing.getZone());
+        return subscription;
+    }
+
+    /**
+     *
+     * @return the timing parameters of all subscriptions, with the ids of
+     * their subscribers
+     */
+    List<DeviceTickerConfiguration> getSubscriptions() {
+        List<DeviceTickerConfiguration> subscriptionList = new ArrayList<>(subscriptions.size());
+        for (String subscriberId : subscriptions.keySet()) {
+            DeviceTickerConfiguration subscription = getSubscription(subscriberId);
+            if (subscription != null) {
+                subscriptionList.add(subscription);
+            }
+        }
+        return subscriptionList;
+    }
+
+    /**
+     *
+     * @param scheduleId
+     * @return true if the shared ticker has subscribers
+     */
+    boolean isSubscribed(String scheduleId) {
+        Set<String> subscribers = schedules.get(scheduleId);
+        return subscribers != null && !subscribers.isEmpty();
+    }
+
+    int getScheduleCount() {
+        return schedules.size();
+    }
+
+    int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+}
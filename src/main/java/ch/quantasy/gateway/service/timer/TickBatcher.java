@@ -0,0 +1,141 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.timer.SchedulerEngine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Collects the ticks of a time window and hands them over as one batch.
+ * Collecting is lock-free, a batch is flushed at the end of each window or
+ * as soon as it reaches the maximum batch size.
+ *
+ * @author reto
+ */
+public class TickBatcher {
+
+    private final Queue<Tick> ticks;
+    private final AtomicInteger size;
+    private final int maxBatchSize;
+    private final Consumer<List<Tick>> publisher;
+    private final SchedulerEngine.ScheduledTask flushTask;
+
+    /**
+     *
+     * @param engine engine used to flush periodically
+     * @param windowMillis length of the time window in ms
+     * @param maxBatchSize maximum amount of ticks within one batch
+     * @param publisher receives each batch
+     */
+    public TickBatcher(SchedulerEngine engine, long windowMillis, int maxBatchSize, Consumer<List<Tick>> publisher) {
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException("windowMillis must be greater than 0: " + windowMillis);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than 0: " + maxBatchSize);
+        }
+        this.ticks = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+        this.maxBatchSize = maxBatchSize;
+        this.publisher = publisher;
+        this.flushTask = engine.scheduleAtFixedRate(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(String id, long value) {
+        ticks.add(new Tick(id, value));
+        if (size.incrementAndGet() >= maxBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Publishes all collected ticks, split into batches of at most
+     * maxBatchSize.
+     */
+    public synchronized void flush() {
+        while (size.get() > 0) {
+            List<Tick> batch = new ArrayList<>(Math.min(size.get(), maxBatchSize));
+            Tick tick;
+            while (batch.size() < maxBatchSize && (tick = ticks.poll()) != null) {
+                batch.add(tick);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            size.addAndGet(-batch.size());
+            publisher.accept(batch);
+        }
+    }
+
+    /**
+     * Stops the periodic flush after flushing the remaining ticks.
+     */
+    public void close() {
+        flushTask.cancel();
+        flush();
+    }
+
+    public static final class Tick {
+
+        private final String id;
+        private final long value;
+
+        public Tick(String id, long value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getValue() {
+            return value;
+        }
+    }
+}
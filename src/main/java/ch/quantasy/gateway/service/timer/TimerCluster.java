@@ -0,0 +1,220 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.timer.DeviceTickerConfiguration;
+import ch.quantasy.timer.ShardedTimerDevice;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Membership of a cluster of {@link TimerService} nodes sharing one contract
+ * instance. The nodes announce themselves by heartbeats and the ticker ids
+ * are assigned to them by a {@link ConsistentHashRing}. Besides, the latest
+ * configuration of every ticker of the cluster is kept, so a node taking
+ * over a ticker can continue it in phase.
+ * <p>
+ * All methods are synchronized on the cluster, which is also used by the
+ * {@link TimerService} in order to apply an intent and a rebalance
+ * atomically.
+ *
+ * @author reto
+ */
+public class TimerCluster {
+
+    private final String node;
+    private final long heartbeatTimeoutMillis;
+    private final int virtualNodes;
+    private final Map<String, Long> members;
+    private final Map<String, DeviceTickerConfiguration> configurations;
+    private ConsistentHashRing ring;
+
+    /**
+     *
+     * @param node unique name of this node within the cluster
+     * @param heartbeatTimeoutMillis a node is considered gone if no heartbeat
+     * has been received within this time in ms
+     */
+    public TimerCluster(String node, long heartbeatTimeoutMillis) {
+        this(node, heartbeatTimeoutMillis, 128);
+    }
+
+    /**
+     *
+     * @param node unique name of this node within the cluster
+     * @param heartbeatTimeoutMillis a node is considered gone if no heartbeat
+     * has been received within this time in ms
+     * @param virtualNodes positions per node on the hash ring
+     */
+    public TimerCluster(String node, long heartbeatTimeoutMillis, int virtualNodes) {
+        this.node = node;
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        this.virtualNodes = virtualNodes;
+        this.members = new HashMap<>();
+        this.configurations = new HashMap<>();
+        this.members.put(node, Long.MAX_VALUE);
+        this.ring = new ConsistentHashRing(members.keySet(), virtualNodes);
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public synchronized Collection<String> getMembers() {
+        return new ArrayList<>(members.keySet());
+    }
+
+    /**
+     *
+     * @param id
+     * @return true if this node is responsible for the ticker
+     */
+    public synchronized boolean isOwner(String id) {
+        return node.equals(ring.getNode(id));
+    }
+
+    /**
+     *
+     * @param member
+     * @param nowMillis time the heartbeat has been received
+     * @return true if the member joined and hence the ownership changed
+     */
+    synchronized boolean heartbeat(String member, long nowMillis) {
+        if (node.equals(member)) {
+            return false;
+        }
+        if (members.put(member, nowMillis) != null) {
+            return false;
+        }
+        ring = new ConsistentHashRing(members.keySet(), virtualNodes);
+        return true;
+    }
+
+    /**
+     *
+     * @param member
+     * @return true if the member has left and hence the ownership changed
+     */
+    synchronized boolean leave(String member) {
+        if (node.equals(member) || members.remove(member) == null) {
+            return false;
+        }
+        ring = new ConsistentHashRing(members.keySet(), virtualNodes);
+        return true;
+    }
+
+    /**
+     *
+     * @param nowMillis
+     * @return true if members have been evicted and hence the ownership
+     * changed
+     */
+    synchronized boolean evictStale(long nowMillis) {
+        boolean isChanged = false;
+        Iterator<Map.Entry<String, Long>> iterator = members.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> member = iterator.next();
+            if (member.getValue() != Long.MAX_VALUE && nowMillis - member.getValue() > heartbeatTimeoutMillis) {
+                iterator.remove();
+                isChanged = true;
+            }
+        }
+        if (isChanged) {
+            ring = new ConsistentHashRing(members.keySet(), virtualNodes);
+        }
+        return isChanged;
+    }
+
+    /**
+     * Keeps the latest (complete) configuration of a ticker of the cluster.
+     *
+     * @param configuration
+     */
+    synchronized void configured(DeviceTickerConfiguration configuration) {
+        configurations.put(configuration.getId(), new DeviceTickerConfiguration(configuration));
+    }
+
+    synchronized void removed(String id) {
+        configurations.remove(id);
+    }
+
+    /**
+     *
+     * @return copies of the configurations of all tickers of the cluster
+     */
+    synchronized Collection<DeviceTickerConfiguration> getConfigurations() {
+        return new ArrayList<>(configurations.values());
+    }
+
+    /**
+     * Takes over the tickers of the cluster this node now owns and releases
+     * the ones of the device now owned by another node, which will continue
+     * them in phase.
+     *
+     * @param device device of this node
+     * @param excludedId id of a ticker of this node only (i.e. its clock)
+     * @return ids of the released tickers
+     */
+    synchronized List<String> rebalance(ShardedTimerDevice device, String excludedId) {
+        for (DeviceTickerConfiguration configuration : configurations.values()) {
+            if (isOwner(configuration.getId()) && !device.hasTicker(configuration.getId())) {
+                device.restoreTickerConfiguration(configuration);
+            }
+        }
+        List<String> released = new ArrayList<>();
+        for (DeviceTickerConfiguration configuration : device.getConfigurations()) {
+            String id = configuration.getId();
+            if (id.equals(excludedId)) {
+                continue;
+            }
+            if (!isOwner(id)) {
+                device.release(id);
+                released.add(id);
+            }
+        }
+        return released;
+    }
+}
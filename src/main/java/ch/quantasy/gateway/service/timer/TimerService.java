@@ -42,13 +42,31 @@
 package ch.quantasy.gateway.service.timer;
 
 import ch.quantasy.mqtt.gateway.client.GatewayClient;
+import ch.quantasy.timer.DeviceTickerBulk;
 import ch.quantasy.timer.DeviceTickerCancel;
+import ch.quantasy.timer.DeviceTickerCodec;
 import ch.quantasy.timer.DeviceTickerConfiguration;
+import ch.quantasy.timer.ExecutorSchedulerEngine;
+import ch.quantasy.timer.LatencyHistogram;
+import ch.quantasy.timer.SchedulerEngine;
+import ch.quantasy.timer.ShardedTimerDevice;
+import ch.quantasy.timer.TickDispatcher;
+import ch.quantasy.timer.TickerJournal;
 import ch.quantasy.timer.TimerDevice;
 import ch.quantasy.timer.TimerDeviceCallback;
+import ch.quantasy.timer.TimerDeviceStatistics;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.eclipse.paho.client.mqttv3.MqttException;
@@ -59,34 +77,527 @@ import org.eclipse.paho.client.mqttv3.MqttException;
  */
 public class TimerService extends GatewayClient<TimerServiceContract> implements TimerDeviceCallback {
 
-    private final TimerDevice device;
+    private final ShardedTimerDevice device;
+    private volatile TickBatcher tickBatcher;
+    private volatile boolean isPublishingTicksPerId = true;
+    private final Map<String, String> tickTopics;
+    private final LatencyHistogram publishDuration;
+    private SchedulerEngine.ScheduledTask statisticsTask;
+    private volatile DeviceTickerCodec intentCodec;
+    private final TimerCluster cluster;
+    private volatile ClientQuotas quotas;
+    /**
+     * Journal of the subscriptions to the shared tickers, which are journaled
+     * by the device like all other tickers
+     */
+    private TickerJournal subscriptionJournal;
 
     public TimerService(URI mqttURI, String instanceName) throws MqttException {
-        super(mqttURI, "TimerService:" + instanceName, new TimerServiceContract(instanceName));
+        this(mqttURI, instanceName, new ExecutorSchedulerEngine());
+    }
+
+    public TimerService(URI mqttURI, String instanceName, SchedulerEngine schedulerEngine) throws MqttException {
+        this(mqttURI, instanceName, 1, () -> schedulerEngine);
+    }
+
+    /**
+     *
+     * @param mqttURI
+     * @param instanceName
+     * @param shardCount number of shards the tickers are partitioned into by
+     * their id
+     * @param schedulerEngines creates the engine of each shard
+     * @throws MqttException
+     */
+    public TimerService(URI mqttURI, String instanceName, int shardCount, Supplier<SchedulerEngine> schedulerEngines) throws MqttException {
+        this(mqttURI, instanceName, null, shardCount, schedulerEngines);
+    }
 
-        configurations = new TreeSet<>();
-        device = new TimerDevice(this);
+    /**
+     *
+     * @param mqttURI
+     * @param instanceName instance shared by all nodes of the cluster
+     * @param cluster membership of this node, null if this service runs on
+     * its own. All nodes of a cluster receive all intents, but each node only
+     * schedules the tickers it owns.
+     * @param shardCount number of shards the tickers are partitioned into by
+     * their id
+     * @param schedulerEngines creates the engine of each shard
+     * @throws MqttException
+     */
+    public TimerService(URI mqttURI, String instanceName, TimerCluster cluster, int shardCount, Supplier<SchedulerEngine> schedulerEngines) throws MqttException {
+        this(mqttURI, instanceName, cluster, shardCount, schedulerEngines, null, 0);
+    }
+
+    /**
+     *
+     * @param mqttURI
+     * @param instanceName instance shared by all nodes of the cluster
+     * @param cluster membership of this node, null if this service runs on
+     * its own.
+     * @param shardCount number of shards the tickers are partitioned into by
+     * their id
+     * @param schedulerEngines creates the engine of each shard
+     * @param journal restored before the intents are subscribed, so no intent
+     * is overwritten by the state of the previous run. null for no journal.
+     * @param compactionPeriodMillis period in ms the journal is compacted
+     * @throws MqttException
+     * @throws UncheckedIOException if the journal cannot be read
+     */
+    public TimerService(URI mqttURI, String instanceName, TimerCluster cluster, int shardCount, Supplier<SchedulerEngine> schedulerEngines,
+            TickerJournal journal, long compactionPeriodMillis) throws MqttException {
+        super(mqttURI, "TimerService:" + instanceName + (cluster == null ? "" : ":" + cluster.getNode()), new TimerServiceContract(instanceName));
+        this.cluster = cluster;
+
+        lastPublished = new ConcurrentHashMap<>();
+        pendingStatus = new ConcurrentHashMap<>();
+        tickTopics = new ConcurrentHashMap<>();
+        sharedSchedules = new SharedSchedules();
+        publishDuration = new LatencyHistogram();
+        device = new ShardedTimerDevice(this, shardCount, schedulerEngines);
+        if (journal != null) {
+            try {
+                device.setJournal(journal, compactionPeriodMillis);
+                setSubscriptionJournal(journal, compactionPeriodMillis);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        intentCodec = new DeviceTickerCodec(super.getMapper().getFactory());
         subscribe(getContract().INTENT_CANCEL+"/#", (topic, payload) -> {
             try {
-                DeviceTickerCancel cancel = super.getMapper().readValue(payload, DeviceTickerCancel.class);
-                device.cancel(cancel);
+                DeviceTickerCodec codec = intentCodec;
+                DeviceTickerCancel cancel = codec != null ? codec.readCancel(payload) : super.getMapper().readValue(payload, DeviceTickerCancel.class);
+                if (cancel == null || SharedSchedules.isShared(cancel.getId())) {
+                    return;
+                }
+                unsubscribeSchedule(cancel.getId());
+                cancel(cancel);
+            } catch (Exception ex) {
+                Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        });
+        subscribe(getContract().INTENT_BULK + "/#", (topic, payload) -> {
+            DeviceTickerBulk bulk = null;
+            try {
+                bulk = super.getMapper().readValue(payload, DeviceTickerBulk.class);
+                if (bulk != null && bulk.getConfigurations() != null) {
+                    String party = getParty(getContract().INTENT_BULK, topic);
+                    Map<String, Boolean> chargedClients = new HashMap<>();
+                    bulk.getConfigurations().removeIf((configuration) -> configuration != null
+                            && (SharedSchedules.isShared(configuration.getId()) || !isAdmitted(party, configuration, chargedClients)));
+                }
+                if (bulk != null && bulk.getCancels() != null) {
+                    bulk.getCancels().removeIf((cancel) -> cancel != null && SharedSchedules.isShared(cancel.getId()));
+                }
+                applyBulk(bulk);
             } catch (Exception ex) {
+                if (bulk != null && bulk.getConfigurations() != null) {
+                    for (DeviceTickerConfiguration configuration : bulk.getConfigurations()) {
+                        releaseUnapplied(configuration);
+                    }
+                }
                 Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
             }
         });
         subscribe(getContract().INTENT_CONFIGURATION + "/#", (topic, payload) -> {
+            DeviceTickerConfiguration configuration = null;
+            try {
+                DeviceTickerCodec codec = intentCodec;
+                configuration = codec != null ? codec.readConfiguration(payload) : super.getMapper().readValue(payload, DeviceTickerConfiguration.class);
+                if (configuration == null || SharedSchedules.isShared(configuration.getId())) {
+                    return;
+                }
+                if (!isAdmitted(getParty(getContract().INTENT_CONFIGURATION, topic), configuration, null)) {
+                    return;
+                }
+                setTickerConfiguration(configuration);
+            } catch (Exception ex) {
+                releaseUnapplied(configuration);
+                Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        });
+        subscribe(getContract().INTENT_SUBSCRIPTION + "/#", (topic, payload) -> {
             try {
                 DeviceTickerConfiguration configuration = super.getMapper().readValue(payload, DeviceTickerConfiguration.class);
-                device.setTickerConfiguration(configuration);
+                if (configuration == null || configuration.getId() == null || SharedSchedules.isShared(configuration.getId())) {
+                    return;
+                }
+                ClientQuotas currentQuotas = quotas;
+                if (currentQuotas != null) {
+                    String client = ClientQuotas.getClient(getParty(getContract().INTENT_SUBSCRIPTION, topic), configuration.getId());
+                    ClientQuotas.Rejection rejection = currentQuotas.admitIntent(client);
+                    if (rejection == null) {
+                        rejection = currentQuotas.admitSubscription(client, configuration);
+                    }
+                    if (rejection != null) {
+                        reportRejection(currentQuotas, client, configuration.getId(), rejection);
+                        return;
+                    }
+                }
+                synchronized (sharedSchedules) {
+                    //An unchanged subscription keeps its admission, which has just been renewed
+                    if (!subscribeSchedule(configuration) && sharedSchedules.getSchedule(configuration.getId()) == null) {
+                        releaseSubscription(configuration.getId());
+                    }
+                }
             } catch (Exception ex) {
                 Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
             }
         });
+        if (cluster != null) {
+            subscribeCluster();
+        }
         super.connect();
         device.setTickerConfiguration(new DeviceTickerConfiguration(super.getParameters().getClientID(), null, null, 1000, null));
     }
 
-    private SortedSet<DeviceTickerConfiguration> configurations;
+    /**
+     * Configuration last published per id on
+     * {@link TimerServiceContract#STATUS_CONFIGURATION}/&lt;id&gt;. Publishing
+     * and removal of an id happen while holding its entry, so a delayed
+     * status never overtakes the removal. The map itself is not locked while
+     * publishing, so other ids are not stalled by the broker.
+     */
+    private final Map<String, PublishedStatus> lastPublished;
+    /**
+     * Latest configuration per id waiting for the end of its status window.
+     */
+    private final Map<String, DeviceTickerConfiguration> pendingStatus;
+    private volatile long statusWindowMillis;
+    private final SharedSchedules sharedSchedules;
+
+    /**
+     *
+     * @param intentTopic
+     * @param topic topic the intent has been published on
+     * @return the intending party named at the end of the topic, empty if
+     * none
+     */
+    private static String getParty(String intentTopic, String topic) {
+        if (topic == null || topic.length() <= intentTopic.length() + 1) {
+            return "";
+        }
+        return topic.substring(intentTopic.length() + 1);
+    }
+
+    /**
+     * Checks the configuration against the quotas of its client and reports
+     * the rejection if it exceeds them.
+     *
+     * @param party intending party named at the end of the intent topic
+     * @param configuration
+     * @param chargedClients clients the intent message has already been
+     * charged to, with the outcome, so a bulk is charged once per client; null
+     * for a message carrying a single configuration
+     * @return true if the configuration is to be applied
+     */
+    private boolean isAdmitted(String party, DeviceTickerConfiguration configuration, Map<String, Boolean> chargedClients) {
+        ClientQuotas currentQuotas = quotas;
+        if (currentQuotas == null || configuration.getId() == null) {
+            return true;
+        }
+        String client = ClientQuotas.getClient(party, configuration.getId());
+        Boolean isCharged = chargedClients == null ? null : chargedClients.get(client);
+        if (isCharged == null) {
+            ClientQuotas.Rejection rejection = currentQuotas.admitIntent(client);
+            isCharged = rejection == null;
+            if (chargedClients != null) {
+                chargedClients.put(client, isCharged);
+            }
+            if (rejection != null) {
+                reportRejection(currentQuotas, client, configuration.getId(), rejection);
+            }
+        }
+        if (!isCharged) {
+            return false;
+        }
+        ClientQuotas.Rejection rejection = currentQuotas.admit(client, configuration, device.getTickerConfiguration(configuration.getId()));
+        if (rejection == null) {
+            return true;
+        }
+        reportRejection(currentQuotas, client, configuration.getId(), rejection);
+        return false;
+    }
+
+    /**
+     * Publishes the rejection on
+     * {@link TimerServiceContract#STATUS_REJECTION}/&lt;client&gt;, at most
+     * once per second and client, so a flood of rejected intents does not
+     * turn into a flood of status messages. Within a cluster, only the owner
+     * of the client publishes.
+     */
+    private void reportRejection(ClientQuotas currentQuotas, String client, String id, ClientQuotas.Rejection rejection) {
+        if (cluster != null) {
+            synchronized (cluster) {
+                if (!cluster.isOwner(client)) {
+                    return;
+                }
+            }
+        }
+        if (currentQuotas.isReportDue(client)) {
+            publishStatus(getContract().STATUS_REJECTION + "/" + client, new RejectionStatus(id, rejection, currentQuotas.getRejections(client)));
+        }
+    }
+
+    private void releaseSubscription(String subscriberId) {
+        ClientQuotas currentQuotas = quotas;
+        if (currentQuotas != null) {
+            currentQuotas.releaseSubscription(subscriberId);
+        }
+    }
+
+    private void release(DeviceTickerConfiguration configuration) {
+        ClientQuotas currentQuotas = quotas;
+        if (currentQuotas != null && configuration != null) {
+            currentQuotas.release(configuration.getId());
+        }
+    }
+
+    /**
+     * Releases an admitted configuration which has not become a ticker, i.e.
+     * due to a malformed cron expression.
+     */
+    private void releaseUnapplied(DeviceTickerConfiguration configuration) {
+        if (configuration != null && configuration.getId() != null && !device.hasTicker(configuration.getId())) {
+            release(configuration);
+        }
+    }
+
+    private void setTickerConfiguration(DeviceTickerConfiguration configuration) {
+        if (cluster == null) {
+            device.setTickerConfiguration(configuration);
+            return;
+        }
+        if (configuration == null || configuration.getId() == null) {
+            return;
+        }
+        synchronized (cluster) {
+            if (cluster.isOwner(configuration.getId())) {
+                device.setTickerConfiguration(configuration);
+            }
+        }
+    }
+
+    private void cancel(DeviceTickerCancel cancel) {
+        if (cluster == null) {
+            device.cancel(cancel);
+            return;
+        }
+        if (cancel == null || cancel.getId() == null) {
+            return;
+        }
+        synchronized (cluster) {
+            if (cluster.isOwner(cancel.getId())) {
+                device.cancel(cancel);
+            }
+        }
+    }
+
+    /**
+     * Subscribes the id of the configuration to the shared ticker with the
+     * same timing parameters, which is created with its first subscriber. The
+     * subscriber learns the shared ticker from
+     * {@link TimerServiceContract#STATUS_SUBSCRIPTION}/&lt;id&gt; and
+     * receives its ticks on {@link TimerServiceContract#EVENT_TICK}/shared/&lt;schedule&gt;.
+     * A subscriber already subscribed to another schedule is moved.
+     *
+     * @param configuration
+     * @return true if the subscription has been created or moved, false if it
+     * has been left as it is
+     */
+    private boolean subscribeSchedule(DeviceTickerConfiguration configuration) {
+        if (configuration == null || configuration.getId() == null || SharedSchedules.isShared(configuration.getId())) {
+            return false;
+        }
+        String subscriberId = configuration.getId();
+        synchronized (sharedSchedules) {
+            String scheduleId = sharedSchedules.getScheduleId(configuration);
+            if (scheduleId.equals(sharedSchedules.getSchedule(subscriberId))) {
+                return false;
+            }
+            String abandoned = sharedSchedules.unsubscribe(subscriberId);
+            if (abandoned != null) {
+                cancel(new DeviceTickerCancel(abandoned));
+            }
+            if (sharedSchedules.subscribe(subscriberId, scheduleId)) {
+                DeviceTickerConfiguration schedule = new DeviceTickerConfiguration(scheduleId, configuration.getEpoch(), configuration.getFirst(), configuration.getInterval(), configuration.getLast());
+                schedule.setCron(configuration.getCron());
+                schedule.setZone(configuration.getZone());
+                setTickerConfiguration(schedule);
+            }
+            journalSubscription(subscriberId);
+            publishSubscriptionStatus(subscriberId, new SubscriptionStatus(subscriberId, scheduleId));
+            return true;
+        }
+    }
+
+    /**
+     * Cancels the subscription of the id, the shared ticker being cancelled
+     * with its last subscriber.
+     *
+     * @param subscriberId
+     */
+    private void unsubscribeSchedule(String subscriberId) {
+        synchronized (sharedSchedules) {
+            if (sharedSchedules.getSchedule(subscriberId) == null) {
+                return;
+            }
+            String abandoned = sharedSchedules.unsubscribe(subscriberId);
+            if (abandoned != null) {
+                cancel(new DeviceTickerCancel(abandoned));
+            }
+            releaseSubscription(subscriberId);
+            journalSubscription(subscriberId);
+            publishSubscriptionStatus(subscriberId, null);
+        }
+    }
+
+    /**
+     * Drops the subscriptions of a shared ticker which has been removed by
+     * itself, i.e. as its last tick has passed.
+     *
+     * @param id
+     */
+    private void sharedScheduleRemoved(String id) {
+        if (!SharedSchedules.isShared(id)) {
+            return;
+        }
+        synchronized (sharedSchedules) {
+            for (String subscriberId : sharedSchedules.removeSchedule(id)) {
+                releaseSubscription(subscriberId);
+                journalSubscription(subscriberId);
+                publishSubscriptionStatus(subscriberId, null);
+            }
+        }
+    }
+
+    /**
+     * Within a cluster, all nodes keep track of the subscriptions, but only
+     * the owner of the subscriber publishes its status.
+     */
+    private void publishSubscriptionStatus(String subscriberId, SubscriptionStatus status) {
+        if (cluster != null) {
+            synchronized (cluster) {
+                if (!cluster.isOwner(subscriberId)) {
+                    return;
+                }
+            }
+        }
+        publishStatus(getContract().STATUS_SUBSCRIPTION + "/" + subscriberId, status);
+    }
+
+    private void applyBulk(DeviceTickerBulk bulk) {
+        if (cluster == null || bulk == null) {
+            device.applyBulk(bulk);
+            return;
+        }
+        synchronized (cluster) {
+            List<DeviceTickerConfiguration> ownedConfigurations = new ArrayList<>();
+            if (bulk.getConfigurations() != null) {
+                for (DeviceTickerConfiguration configuration : bulk.getConfigurations()) {
+                    if (configuration != null && configuration.getId() != null && cluster.isOwner(configuration.getId())) {
+                        ownedConfigurations.add(configuration);
+                    }
+                }
+            }
+            List<DeviceTickerCancel> ownedCancels = new ArrayList<>();
+            if (bulk.getCancels() != null) {
+                for (DeviceTickerCancel cancel : bulk.getCancels()) {
+                    if (cancel != null && cancel.getId() != null && cluster.isOwner(cancel.getId())) {
+                        ownedCancels.add(cancel);
+                    }
+                }
+            }
+            device.applyBulk(new DeviceTickerBulk(ownedConfigurations, ownedCancels));
+        }
+    }
+
+    /**
+     * Learns the members of the cluster from their heartbeats and the
+     * configurations of all tickers of the cluster from the status of their
+     * owners, so the tickers can be taken over in phase whenever the
+     * ownership changes.
+     */
+    private void subscribeCluster() {
+        String nodePrefix = getContract().STATUS_NODE + "/";
+        subscribe(nodePrefix + "#", (topic, payload) -> {
+            String member = topic.substring(nodePrefix.length());
+            boolean isChanged;
+            if (payload == null || payload.length == 0) {
+                isChanged = cluster.leave(member);
+            } else {
+                isChanged = cluster.heartbeat(member, System.currentTimeMillis());
+            }
+            if (isChanged) {
+                rebalance();
+            }
+        });
+        String configurationPrefix = getContract().STATUS_CONFIGURATION + "/";
+        subscribe(configurationPrefix + "#", (topic, payload) -> {
+            try {
+                if (payload == null || payload.length == 0) {
+                    String id = topic.substring(configurationPrefix.length());
+                    cluster.removed(id);
+                    //Nodes not owning a shared ticker learn its end from its owner
+                    if (!device.hasTicker(id)) {
+                        sharedScheduleRemoved(id);
+                    }
+                    ClientQuotas currentQuotas = quotas;
+                    if (currentQuotas != null) {
+                        currentQuotas.release(id);
+                    }
+                    return;
+                }
+                DeviceTickerCodec codec = intentCodec;
+                DeviceTickerConfiguration configuration = codec != null ? codec.readConfiguration(payload) : super.getMapper().readValue(payload, DeviceTickerConfiguration.class);
+                if (configuration != null && configuration.getId() != null) {
+                    cluster.configured(configuration);
+                }
+            } catch (Exception ex) {
+                Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        });
+        subscribe(getContract().STATUS_BULK, (topic, payload) -> {
+            try {
+                DeviceTickerBulk bulk = super.getMapper().readValue(payload, DeviceTickerBulk.class);
+                if (bulk == null) {
+                    return;
+                }
+                if (bulk.getConfigurations() != null) {
+                    for (DeviceTickerConfiguration configuration : bulk.getConfigurations()) {
+                        cluster.configured(configuration);
+                    }
+                }
+                if (bulk.getCancels() != null) {
+                    ClientQuotas currentQuotas = quotas;
+                    for (DeviceTickerCancel cancel : bulk.getCancels()) {
+                        cluster.removed(cancel.getId());
+                        if (!device.hasTicker(cancel.getId())) {
+                            sharedScheduleRemoved(cancel.getId());
+                        }
+                        if (currentQuotas != null) {
+                            currentQuotas.release(cancel.getId());
+                        }
+                    }
+                }
+            } catch (Exception ex) {
+                Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        });
+    }
+
+    /**
+     * Takes over the tickers this node now owns and releases the ones now
+     * owned by another node, which will continue them in phase.
+     */
+    private void rebalance() {
+        synchronized (cluster) {
+            for (String id : cluster.rebalance(device, super.getParameters().getClientID())) {
+                tickTopics.remove(id);
+            }
+        }
+    }
 
     @Override
     public void tickerConfigurationUpdated(DeviceTickerConfiguration configuration) {
@@ -96,26 +607,590 @@ public class TimerService extends GatewayClient<TimerServiceContract> implements
         if (configuration.getId().equals(super.getParameters().getClientID())) {
             return;
         }
-        configurations.add(configuration);
-        publishStatus(getContract().STATUS_CONFIGURATION + "/" + configuration.getId(), configuration);
+        //The device hands over its live configuration, hence keep a copy
+        DeviceTickerConfiguration status = new DeviceTickerConfiguration(configuration);
+        long window = statusWindowMillis;
+        if (window <= 0) {
+            publishConfigurationStatus(status, false);
+            return;
+        }
+        if (pendingStatus.put(status.getId(), status) == null) {
+            device.getSchedulerEngine().schedule(() -> {
+                DeviceTickerConfiguration pending = pendingStatus.remove(status.getId());
+                if (pending != null) {
+                    publishConfigurationStatus(pending, true);
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Publishes the status unless it equals the one published last.
+     *
+     * @param isDelayed true if the status has been waiting for its window, in
+     * which case the ticker may have been removed meanwhile
+     */
+    private void publishConfigurationStatus(DeviceTickerConfiguration status, boolean isDelayed) {
+        String id = status.getId();
+        while (true) {
+            PublishedStatus published = lastPublished.computeIfAbsent(id, (key) -> new PublishedStatus());
+            synchronized (published) {
+                if (published.isDetached) {
+                    //Removed meanwhile, hence start over with a fresh entry
+                    continue;
+                }
+                if (isSame(published.configuration, status) || (isDelayed && !device.hasTicker(id))) {
+                    if (published.configuration == null) {
+                        published.isDetached = true;
+                        lastPublished.remove(id, published);
+                    }
+                    return;
+                }
+                publishStatus(getContract().STATUS_CONFIGURATION + "/" + id, status);
+                published.configuration = status;
+                return;
+            }
+        }
+    }
+
+    private static boolean isSame(DeviceTickerConfiguration a, DeviceTickerConfiguration b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.getId(), b.getId()) && Objects.equals(a.getEpoch(), b.getEpoch())
+                && Objects.equals(a.getFirst(), b.getFirst()) && Objects.equals(a.getInterval(), b.getInterval())
+                && Objects.equals(a.getLast(), b.getLast()) && Objects.equals(a.getCron(), b.getCron())
+                && Objects.equals(a.getZone(), b.getZone());
+    }
+
+    /**
+     * Coalesces the status updates of each id within the given window, so
+     * only the latest configuration of a burst of reconfigurations is
+     * published. Identical statuses are never republished.
+     *
+     * @param statusWindowMillis window in ms, 0 in order to publish each
+     * change immediately
+     */
+    public void setStatusWindow(long statusWindowMillis) {
+        this.statusWindowMillis = statusWindowMillis;
+    }
+
+    /**
+     * Delivers the ticks (and hence publishes them) on the threads of the
+     * dispatcher instead of the scheduler threads.
+     *
+     * @param dispatcher null in order to deliver on the scheduler threads
+     */
+    public void setDispatcher(TickDispatcher dispatcher) {
+        device.setDispatcher(dispatcher);
+    }
+
+    /**
+     * Sheds lagging ticks instead of publishing them in bursts. The value of a
+     * tick stays the epoch delta, while a tick preceded by shed ticks is
+     * announced on {@link TimerServiceContract#EVENT_MISSED}/&lt;id&gt; with
+     * the number of ticks missed since the previous one.
+     *
+     * @param overloadPolicy
+     * @param maxLagMillis see
+     * {@link TimerDevice#setOverloadPolicy(ch.quantasy.timer.TimerDevice.OverloadPolicy, long)}
+     */
+    public void setOverloadPolicy(TimerDevice.OverloadPolicy overloadPolicy, long maxLagMillis) {
+        device.setOverloadPolicy(overloadPolicy, maxLagMillis);
+    }
+
+    /**
+     * Limits the tickers and intents of each client, in order to protect the
+     * other clients from a misbehaving one. Rejected intents are reported on
+     * {@link TimerServiceContract#STATUS_REJECTION}/&lt;client&gt;. Only
+     * tickers configured after this call are accounted.
+     *
+     * @param quotas null in order to admit all intents
+     */
+    public void setQuotas(ClientQuotas quotas) {
+        this.quotas = quotas;
+    }
+
+    /**
+     * Restores the tickers of a previous run and journals all further
+     * configurations and cancels, so clients do not have to resend them after
+     * a restart. As the intents are already subscribed, a ticker configured
+     * meanwhile is kept, but one cancelled meanwhile is restored. Hence
+     * prefer to hand the journal over to the constructor.
+     *
+     * @param journal
+     * @param compactionPeriodMillis period in ms the journal is compacted
+     * @throws IOException
+     */
+    public void setJournal(TickerJournal journal, long compactionPeriodMillis) throws IOException {
+        device.setJournal(journal, compactionPeriodMillis);
+        setSubscriptionJournal(journal, compactionPeriodMillis);
+    }
+
+    /**
+     * Restores the subscriptions to the shared tickers, which the device has
+     * just restored, and journals all further subscriptions in the
+     * subdirectory 'subscriptions' of the journal. Shared tickers left without
+     * subscribers are cancelled, as no intent could cancel them otherwise.
+     */
+    private void setSubscriptionJournal(TickerJournal journal, long compactionPeriodMillis) throws IOException {
+        TickerJournal newSubscriptionJournal = new TickerJournal(journal.getDirectory().resolve("subscriptions"),
+                Math.min(journal.getSegmentCapacity(), 4 * 1024 * 1024));
+        synchronized (sharedSchedules) {
+            for (DeviceTickerConfiguration subscription : newSubscriptionJournal.load()) {
+                if (sharedSchedules.getSchedule(subscription.getId()) == null) {
+                    subscribeSchedule(subscription);
+                }
+            }
+            for (DeviceTickerConfiguration configuration : device.getConfigurations()) {
+                if (SharedSchedules.isShared(configuration.getId()) && !sharedSchedules.isSubscribed(configuration.getId())) {
+                    cancel(new DeviceTickerCancel(configuration.getId()));
+                }
+            }
+            subscriptionJournal = newSubscriptionJournal;
+            newSubscriptionJournal.compact(sharedSchedules::getSubscriptions);
+        }
+        Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            return t;
+        }).scheduleWithFixedDelay(() -> {
+            try {
+                newSubscriptionJournal.compact(() -> {
+                    synchronized (sharedSchedules) {
+                        return sharedSchedules.getSubscriptions();
+                    }
+                });
+                newSubscriptionJournal.force();
+            } catch (IOException ex) {
+                Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }, compactionPeriodMillis, compactionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Journals the subscription (or its cancellation) of the subscriber.
+     * Called while synchronized on the shared schedules.
+     */
+    private void journalSubscription(String subscriberId) {
+        if (subscriptionJournal == null) {
+            return;
+        }
+        try {
+            DeviceTickerConfiguration subscription = sharedSchedules.getSubscription(subscriberId);
+            if (subscription == null) {
+                subscriptionJournal.removed(subscriberId);
+            } else {
+                subscriptionJournal.configured(subscription);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TimerService.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Decodes the configuration and cancel intents with the given streaming
+     * codec. By default, the codec uses the format of the mapper of this
+     * service.
+     *
+     * @param intentCodec null in order to decode via the mapper instead
+     */
+    public void setIntentCodec(DeviceTickerCodec intentCodec) {
+        this.intentCodec = intentCodec;
+    }
+
+    /**
+     *
+     * @return time spent publishing the tick events
+     */
+    public LatencyHistogram getPublishDuration() {
+        return publishDuration;
+    }
+
+    /**
+     * Publishes a snapshot of the instrumentation on
+     * {@link TimerServiceContract#STATUS_STATISTICS} periodically. The
+     * counters are totals, whereas the histograms only cover the period since
+     * the previous snapshot.
+     *
+     * @param periodMillis period in ms, 0 in order to stop publishing
+     */
+    public synchronized void setStatisticsPeriod(long periodMillis) {
+        if (statisticsTask != null) {
+            statisticsTask.cancel();
+            statisticsTask = null;
+        }
+        if (periodMillis > 0) {
+            statisticsTask = device.getSchedulerEngine().scheduleAtFixedRate(
+                    () -> publishStatus(getContract().STATUS_STATISTICS, new StatisticsStatus()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Ticks are additionally collected and published as one aggregated event
+     * on {@link TimerServiceContract#EVENT_TICK_BATCH}.
+     *
+     * @param windowMillis time window in ms collecting the ticks of one batch
+     * @param maxBatchSize maximum amount of ticks within one batch
+     */
+    public synchronized void enableTickBatching(long windowMillis, int maxBatchSize) {
+        disableTickBatching();
+        tickBatcher = new TickBatcher(device.getSchedulerEngine(), windowMillis, maxBatchSize, (batch) -> {
+            long start = System.nanoTime();
+            publishEvent(getContract().EVENT_TICK_BATCH, batch);
+            publishDuration.record(System.nanoTime() - start);
+        });
+    }
+
+    public synchronized void disableTickBatching() {
+        if (tickBatcher != null) {
+            tickBatcher.close();
+            tickBatcher = null;
+        }
+    }
+
+    /**
+     *
+     * @param isPublishingTicksPerId false in order to publish the ticks only
+     * via the batch (if enabled) and not on {@link TimerServiceContract#EVENT_TICK}/&lt;id&gt;
+     */
+    public void setPublishingTicksPerId(boolean isPublishingTicksPerId) {
+        this.isPublishingTicksPerId = isPublishingTicksPerId;
     }
 
     @Override
     public void onTick(String id, Long epochDelta) {
+        onTick(id, epochDelta.longValue());
+    }
+
+    @Override
+    public void onTick(String id, long epochDelta) {
+        onTick(id, epochDelta, 0);
+    }
+
+    @Override
+    public void onTick(String id, long epochDelta, long missed) {
         if (id.equals(super.getParameters().getClientID())) {
             publishStatus(getContract().STATUS_UNIX_EPOCH, new UnixEpochStatus());
+            if (cluster != null) {
+                publishStatus(getContract().STATUS_NODE + "/" + cluster.getNode(), new UnixEpochStatus());
+                if (cluster.evictStale(System.currentTimeMillis())) {
+                    rebalance();
+                }
+            }
         } else {
-            publishEvent(getContract().EVENT_TICK + "/" + id, epochDelta);
+            TickBatcher batcher = tickBatcher;
+            if (batcher != null) {
+                batcher.add(id, epochDelta);
+            }
+            if (isPublishingTicksPerId || batcher == null) {
+                long start = System.nanoTime();
+                if (missed > 0) {
+                    publishEvent(getContract().EVENT_MISSED + "/" + id, new MissedEvent(epochDelta, missed));
+                }
+                publishEvent(getTickTopic(id), epochDelta);
+                publishDuration.record(System.nanoTime() - start);
+            }
         }
     }
 
+    /**
+     *
+     * @param id
+     * @return the cached {@link TimerServiceContract#EVENT_TICK}/&lt;id&gt;
+     * topic, so the tick does not have to build it over and over again.
+     */
+    private String getTickTopic(String id) {
+        String topic = tickTopics.get(id);
+        if (topic == null) {
+            topic = getContract().EVENT_TICK + "/" + id;
+            tickTopics.put(id, topic);
+        }
+        return topic;
+    }
+
     @Override
     public void tickerConfigurationRemoved(DeviceTickerConfiguration configuration) {
         if (configuration == null) {
             return;
         }
-        configurations.remove(configuration);
-        publishStatus(getContract().STATUS_CONFIGURATION + "/" + configuration.getId(), null);
+        tickTopics.remove(configuration.getId());
+        pendingStatus.remove(configuration.getId());
+        release(configuration);
+        sharedScheduleRemoved(configuration.getId());
+        publishRemovalStatus(configuration.getId());
+    }
+
+    /**
+     * Clears the retained {@link TimerServiceContract#STATUS_CONFIGURATION}/&lt;id&gt;
+     * of a removed ticker.
+     */
+    private void publishRemovalStatus(String id) {
+        while (true) {
+            PublishedStatus published = lastPublished.computeIfAbsent(id, (key) -> new PublishedStatus());
+            synchronized (published) {
+                if (published.isDetached) {
+                    continue;
+                }
+                publishStatus(getContract().STATUS_CONFIGURATION + "/" + id, null);
+                published.isDetached = true;
+                lastPublished.remove(id, published);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publishes the outcome of a whole bulk intent (or of a batch of reaped
+     * tickers) as one status message instead of one status per ticker. The
+     * retained status of each removed ticker is cleared nevertheless.
+     */
+    @Override
+    public void tickerConfigurationsChanged(List<DeviceTickerConfiguration> updated, List<DeviceTickerConfiguration> removed) {
+        List<DeviceTickerConfiguration> configurationList = new ArrayList<>(updated.size());
+        for (DeviceTickerConfiguration configuration : updated) {
+            if (configuration.getId().equals(super.getParameters().getClientID())) {
+                continue;
+            }
+            configurationList.add(configuration);
+            //Published by the bulk only, hence the next status of the id is never suppressed
+            PublishedStatus published = lastPublished.get(configuration.getId());
+            if (published != null) {
+                synchronized (published) {
+                    published.configuration = null;
+                }
+            }
+        }
+        List<DeviceTickerCancel> cancelList = new ArrayList<>(removed.size());
+        for (DeviceTickerConfiguration configuration : removed) {
+            tickTopics.remove(configuration.getId());
+            pendingStatus.remove(configuration.getId());
+            release(configuration);
+            sharedScheduleRemoved(configuration.getId());
+            publishRemovalStatus(configuration.getId());
+            cancelList.add(new DeviceTickerCancel(configuration.getId()));
+        }
+        publishStatus(getContract().STATUS_BULK, new DeviceTickerBulk(configurationList, cancelList));
+    }
+
+    final class StatisticsStatus {
+
+        private final long tickers;
+        private final long schedules;
+        private final long reschedules;
+        private final long deadlineUpdates;
+        private final long retimes;
+        private final long unchangedUpdates;
+        private final long cancels;
+        private final long removals;
+        private final long ticks;
+        private final long expirations;
+        private final long shedTicks;
+        private final int sharedSchedules;
+        private final int subscriptions;
+        private final long rejections;
+        private final LatencyHistogram.Snapshot tickLateness;
+        private final LatencyHistogram.Snapshot callbackDuration;
+        private final LatencyHistogram.Snapshot publishDuration;
+        private final long dispatchQueueDepth;
+        private final long dispatchHighWatermark;
+        private final long dispatchDropped;
+        private final LatencyHistogram.Snapshot dispatchLag;
+
+        public StatisticsStatus() {
+            TimerDeviceStatistics statistics = device.getStatistics();
+            tickers = device.getTickerCount();
+            schedules = statistics.getSchedules();
+            reschedules = statistics.getReschedules();
+            deadlineUpdates = statistics.getDeadlineUpdates();
+            retimes = statistics.getRetimes();
+            unchangedUpdates = statistics.getUnchangedUpdates();
+            cancels = statistics.getCancels();
+            removals = statistics.getRemovals();
+            ticks = statistics.getTicks();
+            expirations = statistics.getExpirations();
+            shedTicks = statistics.getShedTicks();
+            synchronized (TimerService.this.sharedSchedules) {
+                sharedSchedules = TimerService.this.sharedSchedules.getScheduleCount();
+                subscriptions = TimerService.this.sharedSchedules.getSubscriptionCount();
+            }
+            ClientQuotas currentQuotas = quotas;
+            rejections = currentQuotas == null ? 0 : currentQuotas.getRejections();
+            tickLateness = statistics.getTickLateness().getIntervalSnapshot();
+            callbackDuration = statistics.getCallbackDuration().getIntervalSnapshot();
+            publishDuration = TimerService.this.publishDuration.getIntervalSnapshot();
+            TickDispatcher dispatcher = device.getDispatcher();
+            if (dispatcher == null) {
+                dispatchQueueDepth = 0;
+                dispatchHighWatermark = 0;
+                dispatchDropped = 0;
+                dispatchLag = null;
+            } else {
+                dispatchQueueDepth = dispatcher.getQueueDepth();
+                dispatchHighWatermark = dispatcher.getHighWatermark();
+                dispatchDropped = dispatcher.getDropped();
+                dispatchLag = dispatcher.getDispatchLag().getIntervalSnapshot();
+            }
+        }
+
+        public long getTickers() {
+            return tickers;
+        }
+
+        public long getSchedules() {
+            return schedules;
+        }
+
+        public long getReschedules() {
+            return reschedules;
+        }
+
+        public long getDeadlineUpdates() {
+            return deadlineUpdates;
+        }
+
+        public long getRetimes() {
+            return retimes;
+        }
+
+        public long getUnchangedUpdates() {
+            return unchangedUpdates;
+        }
+
+        public long getCancels() {
+            return cancels;
+        }
+
+        public long getRemovals() {
+            return removals;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public int getSharedSchedules() {
+            return sharedSchedules;
+        }
+
+        public int getSubscriptions() {
+            return subscriptions;
+        }
+
+        public long getRejections() {
+            return rejections;
+        }
+
+        public long getShedTicks() {
+            return shedTicks;
+        }
+
+        public LatencyHistogram.Snapshot getTickLateness() {
+            return tickLateness;
+        }
+
+        public LatencyHistogram.Snapshot getCallbackDuration() {
+            return callbackDuration;
+        }
+
+        public LatencyHistogram.Snapshot getPublishDuration() {
+            return publishDuration;
+        }
+
+        public long getDispatchQueueDepth() {
+            return dispatchQueueDepth;
+        }
+
+        public long getDispatchHighWatermark() {
+            return dispatchHighWatermark;
+        }
+
+        public long getDispatchDropped() {
+            return dispatchDropped;
+        }
+
+        public LatencyHistogram.Snapshot getDispatchLag() {
+            return dispatchLag;
+        }
+    }
+
+    final class SubscriptionStatus {
+
+        private final String id;
+        private final String schedule;
+
+        public SubscriptionStatus(String id, String schedule) {
+            this.id = id;
+            this.schedule = schedule;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getSchedule() {
+            return schedule;
+        }
+
+    }
+
+    private static final class PublishedStatus {
+
+        private DeviceTickerConfiguration configuration;
+        /**
+         * Set once the entry has been removed from the map
+         */
+        private boolean isDetached;
+    }
+
+    final class RejectionStatus {
+
+        private final String id;
+        private final ClientQuotas.Rejection reason;
+        private final long rejections;
+
+        public RejectionStatus(String id, ClientQuotas.Rejection reason, long rejections) {
+            this.id = id;
+            this.reason = reason;
+            this.rejections = rejections;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public ClientQuotas.Rejection getReason() {
+            return reason;
+        }
+
+        public long getRejections() {
+            return rejections;
+        }
+
+    }
+
+    final class MissedEvent {
+
+        private final long epochDelta;
+        private final long missed;
+
+        public MissedEvent(long epochDelta, long missed) {
+            this.epochDelta = epochDelta;
+            this.missed = missed;
+        }
+
+        public long getEpochDelta() {
+            return epochDelta;
+        }
+
+        public long getMissed() {
+            return missed;
+        }
+
     }
 
     final class UnixEpochStatus {
@@ -55,9 +55,25 @@ public class TimerServiceContract extends AyamlClientContract {
     public final String STATUS_CONFIGURATION;
     private final String TICK;
     public final String EVENT_TICK;
+    private final String MISSED;
+    public final String EVENT_MISSED;
+    private final String TICK_BATCH;
+    public final String EVENT_TICK_BATCH;
     private final String UNIX_EPOCH;
     public final String STATUS_UNIX_EPOCH;
     public final String INTENT_CANCEL;
+    private final String BULK;
+    public final String INTENT_BULK;
+    public final String STATUS_BULK;
+    private final String STATISTICS;
+    public final String STATUS_STATISTICS;
+    private final String NODE;
+    public final String STATUS_NODE;
+    private final String SUBSCRIPTION;
+    public final String INTENT_SUBSCRIPTION;
+    public final String STATUS_SUBSCRIPTION;
+    private final String REJECTION;
+    public final String STATUS_REJECTION;
 
     public TimerServiceContract(String instanceID) {
         super("Timer", "Tick", instanceID);
@@ -66,18 +82,46 @@ public class TimerServiceContract extends AyamlClientContract {
         STATUS_CONFIGURATION = STATUS + "/" + CONFIGURATION;
         TICK = "tick";
         EVENT_TICK = EVENT + "/" + TICK;
+        MISSED = "missed";
+        EVENT_MISSED = EVENT + "/" + MISSED;
+        TICK_BATCH = "tickBatch";
+        EVENT_TICK_BATCH = EVENT + "/" + TICK_BATCH;
         UNIX_EPOCH = "unixEpoch";
         STATUS_UNIX_EPOCH = STATUS + "/" + UNIX_EPOCH;
         INTENT_CANCEL=INTENT +"/cancel";
+        BULK = "bulk";
+        INTENT_BULK = INTENT + "/" + BULK;
+        STATUS_BULK = STATUS + "/" + BULK;
+        STATISTICS = "statistics";
+        STATUS_STATISTICS = STATUS + "/" + STATISTICS;
+        NODE = "node";
+        STATUS_NODE = STATUS + "/" + NODE;
+        SUBSCRIPTION = "subscription";
+        INTENT_SUBSCRIPTION = INTENT + "/" + SUBSCRIPTION;
+        STATUS_SUBSCRIPTION = STATUS + "/" + SUBSCRIPTION;
+        REJECTION = "rejection";
+        STATUS_REJECTION = STATUS + "/" + REJECTION;
     }
 
     @Override
     protected void describe(Map<String, String> descriptions) {
-        descriptions.put(INTENT_CONFIGURATION, "id: <String>\n epoch: [null|0.." + Long.MAX_VALUE+"]\n first: [null|0.." + Long.MAX_VALUE + "]\n interval: [null|1.." + Long.MAX_VALUE + "]\n last: [null|0.." + Long.MAX_VALUE + "]\n");
+        descriptions.put(INTENT_CONFIGURATION, "id: <String>\n epoch: [null|0.." + Long.MAX_VALUE+"]\n first: [null|0.." + Long.MAX_VALUE + "]\n interval: [null|1.." + Long.MAX_VALUE + "]\n last: [null|0.." + Long.MAX_VALUE + "]\n cron: [null|<minute hour dayOfMonth month dayOfWeek>]\n zone: [null|<ZoneId>]\n");
         descriptions.put(INTENT_CANCEL, "id: <String>");
-        descriptions.put(STATUS_CONFIGURATION + "/<id>", "id: <String>\n epoch: [null|0.." + Long.MAX_VALUE+"]\n first: [null|0.." + Long.MAX_VALUE + "]\n interval: [null|1.." + Long.MAX_VALUE + "]\n last: [null|0.." + Long.MAX_VALUE + "]\n");
+        String bulk = "configurations:\n  - id: <String>\n    epoch: [null|0.." + Long.MAX_VALUE + "]\n    first: [null|0.." + Long.MAX_VALUE + "]\n    interval: [null|1.." + Long.MAX_VALUE + "]\n    last: [null|0.." + Long.MAX_VALUE + "]\n    cron: [null|<minute hour dayOfMonth month dayOfWeek>]\n    zone: [null|<ZoneId>]\n cancels:\n  - id: <String>\n";
+        descriptions.put(INTENT_BULK, bulk);
+        descriptions.put(STATUS_BULK, bulk);
+        descriptions.put(STATUS_CONFIGURATION + "/<id>", "id: <String>\n epoch: [null|0.." + Long.MAX_VALUE+"]\n first: [null|0.." + Long.MAX_VALUE + "]\n interval: [null|1.." + Long.MAX_VALUE + "]\n last: [null|0.." + Long.MAX_VALUE + "]\n cron: [null|<minute hour dayOfMonth month dayOfWeek>]\n zone: [null|<ZoneId>]\n");
         descriptions.put(EVENT_TICK + "/<id>", "timestamp: [0.." + Long.MAX_VALUE + "]\n value: [0.." + Long.MAX_VALUE + "]\n");
+        descriptions.put(EVENT_MISSED + "/<id>", "timestamp: [0.." + Long.MAX_VALUE + "]\n value:\n  epochDelta: [0.." + Long.MAX_VALUE + "]\n  missed: [1.." + Long.MAX_VALUE + "]\n");
+        descriptions.put(INTENT_SUBSCRIPTION, "id: <String>\n epoch: [null|0.." + Long.MAX_VALUE+"]\n first: [null|0.." + Long.MAX_VALUE + "]\n interval: [null|1.." + Long.MAX_VALUE + "]\n last: [null|0.." + Long.MAX_VALUE + "]\n cron: [null|<minute hour dayOfMonth month dayOfWeek>]\n zone: [null|<ZoneId>]\n");
+        descriptions.put(STATUS_SUBSCRIPTION + "/<id>", "id: <String>\n schedule: shared/<String>\n");
+        descriptions.put(STATUS_REJECTION + "/<client>", "id: <String>\n reason: [INTENT_RATE|MIN_INTERVAL|TICKERS|TICK_RATE]\n rejections: [1.." + Long.MAX_VALUE + "]\n");
+        descriptions.put(EVENT_TICK_BATCH, "timestamp: [0.." + Long.MAX_VALUE + "]\n value:\n  - id: <String>\n    value: [0.." + Long.MAX_VALUE + "]\n");
         descriptions.put(STATUS_UNIX_EPOCH, "milliseconds: [0.." + Long.MAX_VALUE + "]\n");
+        descriptions.put(STATUS_NODE + "/<node>", "milliseconds: [0.." + Long.MAX_VALUE + "]\n");
+        String histogram = "\n  count: [0.." + Long.MAX_VALUE + "]\n  meanNanos: [0.." + Double.MAX_VALUE + "]\n  p50Nanos: [0.." + Long.MAX_VALUE + "]\n  p90Nanos: [0.." + Long.MAX_VALUE + "]\n  p99Nanos: [0.." + Long.MAX_VALUE + "]\n  p999Nanos: [0.." + Long.MAX_VALUE + "]\n  maxNanos: [0.." + Long.MAX_VALUE + "]\n";
+        descriptions.put(STATUS_STATISTICS, "tickers: [0.." + Long.MAX_VALUE + "]\n schedules: [0.." + Long.MAX_VALUE + "]\n reschedules: [0.." + Long.MAX_VALUE + "]\n deadlineUpdates: [0.." + Long.MAX_VALUE + "]\n retimes: [0.." + Long.MAX_VALUE + "]\n unchangedUpdates: [0.." + Long.MAX_VALUE + "]\n cancels: [0.." + Long.MAX_VALUE + "]\n removals: [0.." + Long.MAX_VALUE + "]\n ticks: [0.." + Long.MAX_VALUE + "]\n expirations: [0.." + Long.MAX_VALUE + "]\n sharedSchedules: [0.." + Integer.MAX_VALUE + "]\n subscriptions: [0.." + Integer.MAX_VALUE + "]\n rejections: [0.." + Long.MAX_VALUE + "]\n shedTicks: [0.." + Long.MAX_VALUE + "]\n tickLateness:" + histogram + " callbackDuration:" + histogram + " publishDuration:" + histogram
+                + " dispatchQueueDepth: [0.." + Long.MAX_VALUE + "]\n dispatchHighWatermark: [0.." + Long.MAX_VALUE + "]\n dispatchDropped: [0.." + Long.MAX_VALUE + "]\n dispatchLag:" + histogram);
     }
 
 }
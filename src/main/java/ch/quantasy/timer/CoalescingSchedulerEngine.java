@@ -0,0 +1,294 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link SchedulerEngine} coalescing fixed-rate tasks. All tasks sharing the
+ * same period and phase (first run in Unix epoch ms modulo the period) are
+ * driven by one single fixed-rate entry of the underlying engine, which fans
+ * out to all members of the group. One-shot tasks are passed through.
+ *
+ * A tolerance can be given, allowing the first run of a task to be postponed
+ * by less than the tolerance in order to join a group. As the member runs
+ * with its group from then on, all of its runs keep this shift, i.e. the
+ * phase of the task is permanently moved by up to the tolerance. Tasks are
+ * never run early.
+ *
+ * @author reto
+ */
+public class CoalescingSchedulerEngine implements SchedulerEngine {
+
+    private final SchedulerEngine engine;
+    private final ConcurrentMap<GroupKey, TickGroup> groups;
+    private final long toleranceMillis;
+
+    public CoalescingSchedulerEngine(SchedulerEngine engine) {
+        this(engine, 0);
+    }
+
+    /**
+     *
+     * @param engine the engine driving the groups
+     * @param toleranceMillis maximum delay in ms the first run of a task is
+     * postponed in order to align it to a group. The following runs keep the
+     * phase of the group, hence are shifted alike. 0 only coalesces tasks
+     * with exactly the same phase.
+     */
+    public CoalescingSchedulerEngine(SchedulerEngine engine, long toleranceMillis) {
+        if (toleranceMillis < 0) {
+            throw new IllegalArgumentException("toleranceMillis must not be negative: " + toleranceMillis);
+        }
+        this.engine = engine;
+        this.toleranceMillis = toleranceMillis;
+        this.groups = new ConcurrentHashMap<>();
+    }
+
+    public SchedulerEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     *
+     * @return number of groups, i.e. the number of fixed-rate entries in the
+     * underlying engine
+     */
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        return engine.schedule(task, delay, unit);
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        long periodMillis = unit.toMillis(period);
+        if (periodMillis <= 0 || unit.toNanos(period) != TimeUnit.MILLISECONDS.toNanos(periodMillis)) {
+            //Sub-millisecond periods are not coalesced
+            return engine.scheduleAtFixedRate(task, initialDelay, period, unit);
+        }
+        long firstRun = engine.getClock().currentTimeMillis() + Math.max(0, unit.toMillis(initialDelay));
+        if (toleranceMillis > 1) {
+            firstRun = ((firstRun + toleranceMillis - 1) / toleranceMillis) * toleranceMillis;
+        }
+        GroupKey key = new GroupKey(periodMillis, Math.floorMod(firstRun, periodMillis));
+        Member member = new Member(task, firstRun);
+        while (true) {
+            TickGroup group = groups.computeIfAbsent(key, (k) -> new TickGroup(k, member.firstRun));
+            if (group.join(member)) {
+                return member;
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        engine.shutdown();
+    }
+
+    @Override
+    public boolean isPrecise() {
+        return engine.isPrecise();
+    }
+
+    @Override
+    public TimerClock getClock() {
+        return engine.getClock();
+    }
+
+    private static final class GroupKey {
+
+        private final long period;
+        private final long phase;
+
+        public GroupKey(long period, long phase) {
+            this.period = period;
+            this.phase = phase;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(period, phase);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) obj;
+            return period == other.period && phase == other.phase;
+        }
+    }
+
+    private final class TickGroup {
+
+        private final GroupKey key;
+        private final Set<Member> members;
+        private ScheduledTask groupTask;
+        /**
+         * Incremented whenever the group is rescheduled, so a run of a
+         * replaced schedule is ignored.
+         */
+        private long generation;
+        private long nextRun;
+        private long latestRun;
+        private boolean isRetired;
+
+        public TickGroup(GroupKey key, long firstRun) {
+            this.key = key;
+            this.members = ConcurrentHashMap.newKeySet();
+            start(firstRun);
+        }
+
+        private void start(long firstRun) {
+            long currentGeneration = ++generation;
+            nextRun = firstRun;
+            //Not run yet
+            latestRun = Long.MIN_VALUE;
+            groupTask = engine.scheduleAtFixedRate(() -> run(currentGeneration), firstRun - engine.getClock().currentTimeMillis(), key.period, TimeUnit.MILLISECONDS);
+        }
+
+        public synchronized boolean join(Member member) {
+            if (isRetired) {
+                return false;
+            }
+            member.group = this;
+            members.add(member);
+            if (member.firstRun <= latestRun) {
+                //Joined while the group was running the very first run of the member
+                long run = latestRun;
+                engine.schedule(() -> member.run(run), 0, TimeUnit.MILLISECONDS);
+            } else if (member.firstRun < nextRun) {
+                //The group has not run yet and starts too late for the member
+                groupTask.cancel();
+                start(member.firstRun);
+            }
+            return true;
+        }
+
+        public synchronized void leave(Member member) {
+            members.remove(member);
+            if (members.isEmpty() && !isRetired) {
+                isRetired = true;
+                groupTask.cancel();
+                groups.remove(key, this);
+            }
+        }
+
+        private void run(long runGeneration) {
+            long run;
+            synchronized (this) {
+                if (runGeneration != generation) {
+                    return;
+                }
+                run = nextRun;
+                nextRun += key.period;
+                latestRun = run;
+            }
+            for (Member member : members) {
+                if (member.firstRun <= run) {
+                    member.run(run);
+                }
+            }
+        }
+    }
+
+    private final class Member implements ScheduledTask {
+
+        private final Runnable task;
+        private final long firstRun;
+        private final AtomicLong latestRun;
+        private final AtomicBoolean isCancelled;
+        private volatile TickGroup group;
+
+        public Member(Runnable task, long firstRun) {
+            this.task = task;
+            this.firstRun = firstRun;
+            this.latestRun = new AtomicLong(Long.MIN_VALUE);
+            this.isCancelled = new AtomicBoolean();
+        }
+
+        public void run(long run) {
+            if (isCancelled.get()) {
+                return;
+            }
+            long latest = latestRun.get();
+            if (latest >= run || !latestRun.compareAndSet(latest, run)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable th) {
+                Logger.getLogger(CoalescingSchedulerEngine.class.getName()).log(Level.SEVERE, null, th);
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!isCancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            group.leave(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled.get();
+        }
+    }
+}
@@ -0,0 +1,595 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Experimental alternative to {@link TimerDevice} for millions of tickers. It
+ * is not wired into the TimerService nor TimerMqWay, hence it is only used by
+ * embedding it directly.
+ * <p>
+ * The state of the tickers lives in primitive columns (struct of arrays)
+ * indexed by a slot number, the ids are kept as UTF-8 within one byte pool and
+ * are found via an open addressing table, and the deadlines are ordered by a
+ * binary heap of slot numbers. Besides the id String handed in with the
+ * configuration, which is kept per slot so a tick does not decode its id, no
+ * object is kept per ticker: about 55 bytes plus the id are used per ticker.
+ * {@link DeviceTickerConfiguration}s are only created at the API boundary,
+ * i.e. for the callbacks.
+ * <p>
+ * A single driver thread delivers the ticks. All state is guarded by the one
+ * monitor of the device, the callbacks are called outside of it. Hence
+ * updates contend with the driver, unlike the shards of
+ * {@link ShardedTimerDevice}.
+ * <p>
+ * Unlike {@link TimerDevice}, the ticks are always in phase with
+ * epoch/first/interval (also after an update), no tick is delivered beyond
+ * last, the resolution is one millisecond and cron schedules are not
+ * supported.
+ *
+ * @author reto
+ */
+public class CompactTimerDevice {
+
+    /**
+     * Marks a column value as null.
+     */
+    private static final int NONE = Integer.MIN_VALUE;
+    private static final int MAX_ID_LENGTH = 0xFFFF;
+    private static final int BATCH_SIZE = 1024;
+
+    private final TimerDeviceCallback callback;
+    private final TimerDeviceStatistics statistics;
+    private final Thread driver;
+    private volatile boolean isShutdown;
+
+    //Columns indexed by slot
+    private long[] epochs;
+    private int[] firsts;
+    private int[] intervals;
+    private int[] lasts;
+    private long[] deadlines;
+    /**
+     * Position within the heap of a live slot. The free slots are chained
+     * through this column: -2 - (next free slot).
+     */
+    private int[] heapPositions;
+    private int[] idOffsets;
+    private String[] ids;
+    private int slotCount;
+    private int freeHead = -1;
+
+    private int[] heap;
+    private int size;
+
+    /**
+     * Each id is stored as its length (2 bytes) followed by its UTF-8 bytes.
+     */
+    private byte[] idPool;
+    private int idPoolSize;
+    private int idPoolGarbage;
+
+    /**
+     * Open addressing (linear probing) table of slot + 1, 0 marks an empty
+     * entry.
+     */
+    private int[] index;
+
+    //Only accessed by the driver thread
+    private final String[] dueIds;
+    private final long[] dueEpochDeltas;
+    private final boolean[] isDueTick;
+    private final DeviceTickerConfiguration[] dueFinished;
+
+    public CompactTimerDevice(TimerDeviceCallback callback) {
+        this(callback, 1024);
+    }
+
+    /**
+     *
+     * @param callback
+     * @param initialCapacity expected number of tickers
+     */
+    public CompactTimerDevice(TimerDeviceCallback callback, int initialCapacity) {
+        this.callback = callback;
+        this.statistics = new TimerDeviceStatistics();
+        int capacity = Math.max(16, initialCapacity);
+        epochs = new long[capacity];
+        firsts = new int[capacity];
+        intervals = new int[capacity];
+        lasts = new int[capacity];
+        deadlines = new long[capacity];
+        heapPositions = new int[capacity];
+        idOffsets = new int[capacity];
+        ids = new String[capacity];
+        heap = new int[capacity];
+        idPool = new byte[capacity * 16];
+        index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        dueIds = new String[BATCH_SIZE];
+        dueEpochDeltas = new long[BATCH_SIZE];
+        isDueTick = new boolean[BATCH_SIZE];
+        dueFinished = new DeviceTickerConfiguration[BATCH_SIZE];
+        driver = Executors.defaultThreadFactory().newThread(this::drive);
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    public TimerDeviceStatistics getStatistics() {
+        return statistics;
+    }
+
+    public synchronized int getTickerCount() {
+        return size;
+    }
+
+    /**
+     *
+     * @return bytes allocated by the columns, the heap, the id pool and the
+     * index
+     */
+    public synchronized long getFootprint() {
+        long columns = (long) epochs.length * (8 + 4 + 4 + 4 + 8 + 4 + 4 + 4);
+        return columns + heap.length * 4L + idPool.length + index.length * 4L;
+    }
+
+    public void setTickerConfiguration(DeviceTickerConfiguration configuration) {
+        if (configuration == null || configuration.getId() == null) {
+            return;
+        }
+        byte[] id = configuration.getId().getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Id too long: " + id.length + " bytes");
+        }
+        if (configuration.getCron() != null && !configuration.getCron().isEmpty()) {
+            throw new IllegalArgumentException("Cron schedules are not supported: " + configuration.getId());
+        }
+        DeviceTickerConfiguration updated;
+        synchronized (this) {
+            int hash = hash(id, 0, id.length);
+            int slot = find(id, hash);
+            long now = System.currentTimeMillis();
+            if (slot < 0) {
+                slot = allocate(configuration.getId(), id, hash);
+                epochs[slot] = configuration.getEpoch() != null ? configuration.getEpoch() : now;
+                firsts[slot] = configuration.getFirst() != null ? configuration.getFirst() : 0;
+                intervals[slot] = configuration.getInterval() != null ? configuration.getInterval() : NONE;
+                lasts[slot] = configuration.getLast() != null ? configuration.getLast() : NONE;
+                deadlines[slot] = nextDeadline(slot, now);
+                heapInsert(slot);
+                statistics.scheduled(false);
+            } else {
+                if (configuration.getEpoch() != null) {
+                    epochs[slot] = configuration.getEpoch();
+                }
+                if (configuration.getFirst() != null) {
+                    firsts[slot] = configuration.getFirst();
+                }
+                if (configuration.getInterval() != null) {
+                    intervals[slot] = configuration.getInterval();
+                }
+                if (configuration.getLast() != null) {
+                    lasts[slot] = configuration.getLast();
+                }
+                deadlines[slot] = nextDeadline(slot, now);
+                siftUp(heapPositions[slot]);
+                siftDown(heapPositions[slot]);
+                statistics.scheduled(true);
+            }
+            updated = toConfiguration(slot, configuration.getId());
+            notifyAll();
+        }
+        callback.tickerConfigurationUpdated(updated);
+    }
+
+    public void cancel(DeviceTickerCancel cancel) {
+        if (cancel == null || cancel.getId() == null) {
+            return;
+        }
+        byte[] id = cancel.getId().getBytes(StandardCharsets.UTF_8);
+        DeviceTickerConfiguration removed;
+        synchronized (this) {
+            int slot = find(id, hash(id, 0, id.length));
+            if (slot < 0) {
+                return;
+            }
+            statistics.cancelled();
+            removed = toConfiguration(slot, cancel.getId());
+            release(slot);
+            statistics.removed();
+            notifyAll();
+        }
+        callback.tickerConfigurationRemoved(removed);
+    }
+
+    /**
+     *
+     * @return configurations of all tickers
+     */
+    public synchronized List<DeviceTickerConfiguration> getConfigurations() {
+        List<DeviceTickerConfiguration> configurations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int slot = heap[i];
+            configurations.add(toConfiguration(slot, ids[slot]));
+        }
+        return configurations;
+    }
+
+    public void shutdown() {
+        isShutdown = true;
+        driver.interrupt();
+    }
+
+    private void drive() {
+        while (!isShutdown) {
+            int count = 0;
+            try {
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    if (size == 0) {
+                        wait();
+                        continue;
+                    }
+                    long due = dueTime(heap[0]);
+                    if (due > now) {
+                        wait(due - now);
+                        continue;
+                    }
+                    while (size > 0 && count < BATCH_SIZE && dueTime(heap[0]) <= now) {
+                        fire(heap[0], now, count++);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                try {
+                    if (isDueTick[i]) {
+                        long start = System.nanoTime();
+                        callback.onTick(dueIds[i], dueEpochDeltas[i]);
+                        statistics.called(System.nanoTime() - start);
+                    }
+                    if (dueFinished[i] != null) {
+                        callback.tickerConfigurationUpdated(dueFinished[i]);
+                        callback.tickerConfigurationRemoved(dueFinished[i]);
+                    }
+                } catch (Throwable th) {
+                    Logger.getLogger(CompactTimerDevice.class.getName()).log(Level.SEVERE, null, th);
+                }
+                dueIds[i] = null;
+                dueFinished[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Ticks the slot at the head of the heap (if its deadline lies within
+     * last) and either reschedules or removes it.
+     */
+    private void fire(int slot, long now, int due) {
+        long deadline = deadlines[slot];
+        long lastTime = lasts[slot] == NONE ? Long.MAX_VALUE : epochs[slot] + lasts[slot];
+        String id = ids[slot];
+        dueIds[due] = id;
+        isDueTick[due] = deadline <= lastTime;
+        if (isDueTick[due]) {
+            dueEpochDeltas[due] = now - epochs[slot];
+            statistics.ticked((now - deadline) * 1000000L);
+        }
+        int interval = intervals[slot];
+        long next = interval == NONE || interval <= 0 ? Long.MAX_VALUE : deadline + interval;
+        if (next > lastTime || next == Long.MAX_VALUE) {
+            dueFinished[due] = toConfiguration(slot, id);
+            release(slot);
+            statistics.removed();
+        } else {
+            deadlines[slot] = next;
+            siftDown(0);
+        }
+    }
+
+    /**
+     *
+     * @return next tick in ms since Unix epoch, in phase with
+     * epoch/first/interval
+     */
+    private long nextDeadline(int slot, long now) {
+        long firstTime = epochs[slot] + firsts[slot];
+        int interval = intervals[slot];
+        if (firstTime >= now) {
+            return firstTime;
+        }
+        if (interval == NONE || interval <= 0) {
+            return now;
+        }
+        return now + Math.floorMod(firstTime - now, (long) interval);
+    }
+
+    /**
+     *
+     * @return time the slot is due, which is its last if it ends before its
+     * next tick
+     */
+    private long dueTime(int slot) {
+        long deadline = deadlines[slot];
+        if (lasts[slot] == NONE) {
+            return deadline;
+        }
+        return Math.min(deadline, epochs[slot] + lasts[slot]);
+    }
+
+    private DeviceTickerConfiguration toConfiguration(int slot, String id) {
+        return new DeviceTickerConfiguration(id, epochs[slot], firsts[slot],
+                intervals[slot] == NONE ? null : intervals[slot], lasts[slot] == NONE ? null : lasts[slot]);
+    }
+
+    private int allocate(String idString, byte[] id, int hash) {
+        int slot;
+        if (freeHead >= 0) {
+            slot = freeHead;
+            freeHead = -2 - heapPositions[slot];
+        } else {
+            if (slotCount == epochs.length) {
+                growColumns();
+            }
+            slot = slotCount++;
+        }
+        idOffsets[slot] = appendId(id);
+        ids[slot] = idString;
+        if ((size + 1) * 2 > index.length) {
+            rehash(index.length << 1);
+        }
+        int i = hash & (index.length - 1);
+        while (index[i] != 0) {
+            i = (i + 1) & (index.length - 1);
+        }
+        index[i] = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Removes the slot from the heap and the index and puts it on the free
+     * list.
+     */
+    private void release(int slot) {
+        heapRemove(heapPositions[slot]);
+        int offset = idOffsets[slot];
+        int length = idLength(offset);
+        int mask = index.length - 1;
+        int i = hash(idPool, offset + 2, length) & mask;
+        while (index[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        //Backward shift deletion, so no tombstones are needed
+        index[i] = 0;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (index[j] == 0) {
+                break;
+            }
+            int other = index[j] - 1;
+            int home = hash(idPool, idOffsets[other] + 2, idLength(idOffsets[other])) & mask;
+            boolean isInPlace = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (isInPlace) {
+                continue;
+            }
+            index[i] = index[j];
+            index[j] = 0;
+            i = j;
+        }
+        idPoolGarbage += 2 + length;
+        ids[slot] = null;
+        heapPositions[slot] = -2 - freeHead;
+        freeHead = slot;
+        if (idPoolGarbage > 4096 && idPoolGarbage * 2 > idPoolSize) {
+            compactIdPool();
+        }
+    }
+
+    private int find(byte[] id, int hash) {
+        int mask = index.length - 1;
+        int i = hash & mask;
+        while (index[i] != 0) {
+            int slot = index[i] - 1;
+            if (isId(slot, id)) {
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean isId(int slot, byte[] id) {
+        int offset = idOffsets[slot];
+        if (idLength(offset) != id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (idPool[offset + 2 + i] != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int idLength(int offset) {
+        return ((idPool[offset] & 0xFF) << 8) | (idPool[offset + 1] & 0xFF);
+    }
+
+    private int appendId(byte[] id) {
+        int required = idPoolSize + 2 + id.length;
+        if (required > idPool.length) {
+            idPool = Arrays.copyOf(idPool, Math.max(required, idPool.length + (idPool.length >> 1)));
+        }
+        int offset = idPoolSize;
+        idPool[offset] = (byte) (id.length >>> 8);
+        idPool[offset + 1] = (byte) id.length;
+        System.arraycopy(id, 0, idPool, offset + 2, id.length);
+        idPoolSize = required;
+        return offset;
+    }
+
+    private void compactIdPool() {
+        byte[] compacted = new byte[Math.max(16, (idPoolSize - idPoolGarbage) + ((idPoolSize - idPoolGarbage) >> 1))];
+        int compactedSize = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = heap[i];
+            int offset = idOffsets[slot];
+            int length = 2 + idLength(offset);
+            System.arraycopy(idPool, offset, compacted, compactedSize, length);
+            idOffsets[slot] = compactedSize;
+            compactedSize += length;
+        }
+        idPool = compacted;
+        idPoolSize = compactedSize;
+        idPoolGarbage = 0;
+    }
+
+    private void rehash(int length) {
+        index = new int[length];
+        int mask = length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = heap[i];
+            int j = hash(idPool, idOffsets[slot] + 2, idLength(idOffsets[slot])) & mask;
+            while (index[j] != 0) {
+                j = (j + 1) & mask;
+            }
+            index[j] = slot + 1;
+        }
+    }
+
+    private void growColumns() {
+        int capacity = epochs.length + (epochs.length >> 1);
+        epochs = Arrays.copyOf(epochs, capacity);
+        firsts = Arrays.copyOf(firsts, capacity);
+        intervals = Arrays.copyOf(intervals, capacity);
+        lasts = Arrays.copyOf(lasts, capacity);
+        deadlines = Arrays.copyOf(deadlines, capacity);
+        heapPositions = Arrays.copyOf(heapPositions, capacity);
+        idOffsets = Arrays.copyOf(idOffsets, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        heap = Arrays.copyOf(heap, capacity);
+    }
+
+    private void heapInsert(int slot) {
+        heap[size] = slot;
+        heapPositions[slot] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    private void heapRemove(int position) {
+        size--;
+        if (position == size) {
+            return;
+        }
+        int moved = heap[size];
+        heap[position] = moved;
+        heapPositions[moved] = position;
+        siftUp(position);
+        siftDown(heapPositions[moved]);
+    }
+
+    private void siftUp(int position) {
+        int slot = heap[position];
+        long due = dueTime(slot);
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            int parentSlot = heap[parent];
+            if (dueTime(parentSlot) <= due) {
+                break;
+            }
+            heap[position] = parentSlot;
+            heapPositions[parentSlot] = position;
+            position = parent;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    private void siftDown(int position) {
+        int slot = heap[position];
+        long due = dueTime(slot);
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && dueTime(heap[child + 1]) < dueTime(heap[child])) {
+                child++;
+            }
+            int childSlot = heap[child];
+            if (dueTime(childSlot) >= due) {
+                break;
+            }
+            heap[position] = childSlot;
+            heapPositions[childSlot] = position;
+            position = child;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    /**
+     * 32 bit FNV-1a followed by the MurmurHash3 finalizer.
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= (bytes[i] & 0xFF);
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled cron expression with the five classic fields: minute (0-59), hour
+ * (0-23), day of month (1-31), month (1-12 or JAN-DEC) and day of week (0-7
+ * or SUN-SAT, 0 and 7 both being Sunday). Each field accepts '*', values,
+ * ranges 'a-b', lists 'a,b' and steps '&#42;/n' or 'a-b/n'. As in cron, a day
+ * matches if either day of month or day of week matches, in case both are
+ * restricted.
+ * <p>
+ * The next fire time is found by skipping whole months, days and hours that
+ * do not match, instead of testing minute by minute. Compiled expressions are
+ * cached.
+ *
+ * @author reto
+ */
+public class CronSchedule {
+
+    private static final int MAX_CACHED = 1024;
+    private static final Map<String, CronSchedule> CACHE = new ConcurrentHashMap<>();
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+    /**
+     * Horizon after which an expression is considered to never fire (i.e. 30
+     * FEB).
+     */
+    private static final int MAX_YEARS = 5;
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean isDayOfMonthRestricted;
+    private final boolean isDayOfWeekRestricted;
+
+    private CronSchedule(String expression) {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Five fields expected: " + expression);
+        }
+        this.expression = expression;
+        minutes = parse(fields[0], 0, 59, null);
+        hours = parse(fields[1], 0, 23, null);
+        daysOfMonth = parse(fields[2], 1, 31, null);
+        months = parse(fields[3], 1, 12, MONTHS);
+        daysOfWeek = parse(fields[4], 0, 7, DAYS);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+        }
+        isDayOfMonthRestricted = !fields[2].startsWith("*");
+        isDayOfWeekRestricted = !fields[4].startsWith("*");
+    }
+
+    /**
+     *
+     * @param expression
+     * @return the compiled (and cached) expression
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static CronSchedule compile(String expression) {
+        CronSchedule schedule = CACHE.get(expression);
+        if (schedule != null) {
+            return schedule;
+        }
+        schedule = new CronSchedule(expression);
+        if (CACHE.size() >= MAX_CACHED) {
+            CACHE.clear();
+        }
+        CACHE.put(expression, schedule);
+        return schedule;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     *
+     * @param afterMillis ms since Unix epoch
+     * @param zone zone the expression is evaluated in
+     * @return the first fire time (ms since Unix epoch) strictly after the
+     * given time, -1 if there is none within the next years
+     */
+    public long next(long afterMillis, ZoneId zone) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(afterMillis), zone)
+                .truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        int endYear = time.getYear() + MAX_YEARS;
+        while (time.getYear() <= endYear) {
+            if (!months.get(time.getMonthValue())) {
+                int month = months.nextSetBit(time.getMonthValue());
+                time = time.withDayOfMonth(1).withHour(0).withMinute(0);
+                time = month < 0 ? time.plusYears(1).withMonth(months.nextSetBit(1)) : time.withMonth(month);
+                continue;
+            }
+            if (!isDay(time)) {
+                time = time.plusDays(1).withHour(0).withMinute(0);
+                continue;
+            }
+            int hour = hours.nextSetBit(time.getHour());
+            if (hour < 0) {
+                time = time.plusDays(1).withHour(0).withMinute(0);
+                continue;
+            }
+            if (hour != time.getHour()) {
+                time = time.withHour(hour).withMinute(0);
+            }
+            int minute = minutes.nextSetBit(time.getMinute());
+            if (minute < 0) {
+                time = time.withMinute(0).plusHours(1);
+                continue;
+            }
+            //Local times within a gap of daylight saving are shifted forward
+            long next = time.withMinute(minute).atZone(zone).toInstant().toEpochMilli();
+            if (next > afterMillis) {
+                return next;
+            }
+            time = time.withMinute(minute).plusMinutes(1);
+        }
+        return -1;
+    }
+
+    private boolean isDay(LocalDateTime time) {
+        boolean isDayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        boolean isDayOfWeek = daysOfWeek.get(time.getDayOfWeek() == DayOfWeek.SUNDAY ? 0 : time.getDayOfWeek().getValue());
+        if (isDayOfMonthRestricted && isDayOfWeekRestricted) {
+            return isDayOfMonth || isDayOfWeek;
+        }
+        return isDayOfMonth && isDayOfWeek;
+    }
+
+    private static BitSet parse(String field, int min, int max, String[] names) {
+        BitSet bits = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = Integer.parseInt(part.substring(slash + 1));
+                if (step < 1) {
+                    throw new IllegalArgumentException("Invalid step: " + field);
+                }
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if ("*".equals(part)) {
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash > 0) {
+                    from = value(part.substring(0, dash), names, min);
+                    to = value(part.substring(dash + 1), names, min);
+                } else {
+                    from = value(part, names, min);
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from < min || to > max || from > to) {
+                throw new IllegalArgumentException("Out of range [" + min + ".." + max + "]: " + field);
+            }
+            for (int i = from; i <= to; i += step) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    private static int value(String value, String[] names, int min) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase(value)) {
+                    return i + min;
+                }
+            }
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid value: " + value, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CronSchedule{" + expression + '}';
+    }
+}
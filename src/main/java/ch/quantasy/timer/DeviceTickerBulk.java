@@ -0,0 +1,82 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.List;
+
+/**
+ * Many configurations and cancels at once.
+ *
+ * @author reto
+ */
+public class DeviceTickerBulk {
+
+    private List<DeviceTickerConfiguration> configurations;
+    private List<DeviceTickerCancel> cancels;
+
+    private DeviceTickerBulk() {
+    }
+
+    /**
+     *
+     * @param configurations configurations to be applied, may be null
+     * @param cancels cancels to be applied after the configurations, may be
+     * null
+     */
+    public DeviceTickerBulk(List<DeviceTickerConfiguration> configurations, List<DeviceTickerCancel> cancels) {
+        this.configurations = configurations;
+        this.cancels = cancels;
+    }
+
+    public List<DeviceTickerConfiguration> getConfigurations() {
+        return configurations;
+    }
+
+    public List<DeviceTickerCancel> getCancels() {
+        return cancels;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceTickerBulk{" + "configurations=" + configurations + ", cancels=" + cancels + '}';
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+
+/**
+ * Decodes {@link DeviceTickerConfiguration} and {@link DeviceTickerCancel}
+ * straight from the token stream of a Jackson {@link JsonParser}, without
+ * reflection-based binding or intermediate trees. The format is defined by
+ * the {@link JsonFactory}: YAML, JSON or any binary format Jackson offers a
+ * factory for (CBOR, Smile, ...).
+ * <p>
+ * Unknown fields are skipped. As with the binding of an ObjectMapper, the
+ * values pass the setters, so negative values are ignored. Values which are
+ * not numbers are rejected.
+ *
+ * @author reto
+ */
+public class DeviceTickerCodec {
+
+    private final JsonFactory factory;
+    private final ThreadLocal<DeviceTickerConfiguration> configurations;
+
+    public DeviceTickerCodec(JsonFactory factory) {
+        this.factory = factory;
+        this.configurations = ThreadLocal.withInitial(() -> new DeviceTickerConfiguration(null, null, null, null, null));
+    }
+
+    public JsonFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * The returned configuration is reused per thread and is only valid until
+     * the next call on the same thread. {@link TimerDevice} copies what it
+     * keeps, hence the result can be passed on directly.
+     *
+     * @param payload
+     * @return the decoded configuration or null if the payload is empty
+     * @throws IOException if the payload is malformed
+     */
+    public DeviceTickerConfiguration readConfiguration(byte[] payload) throws IOException {
+        if (payload == null || payload.length == 0) {
+            return null;
+        }
+        String id = null;
+        Long epoch = null;
+        Integer first = null;
+        Integer interval = null;
+        Integer last = null;
+        String cron = null;
+        String zone = null;
+        try (JsonParser parser = factory.createParser(payload)) {
+            if (!startObject(parser)) {
+                return null;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                boolean isNull = value == JsonToken.VALUE_NULL;
+                switch (name) {
+                    case "id":
+                        id = isNull ? null : parser.getValueAsString();
+                        break;
+                    case "epoch":
+                        epoch = readLong(parser, value);
+                        break;
+                    case "first":
+                        first = readInteger(parser, value);
+                        break;
+                    case "interval":
+                        interval = readInteger(parser, value);
+                        break;
+                    case "last":
+                        last = readInteger(parser, value);
+                        break;
+                    case "cron":
+                        cron = isNull ? null : parser.getValueAsString();
+                        break;
+                    case "zone":
+                        zone = isNull ? null : parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            requireEndObject(token);
+        }
+        DeviceTickerConfiguration configuration = configurations.get();
+        configuration.set(id, null, null, null, null, cron, zone);
+        if (epoch != null) {
+            configuration.setEpoch(epoch);
+        }
+        if (first != null) {
+            configuration.setFirst(first);
+        }
+        if (interval != null) {
+            configuration.setInterval(interval);
+        }
+        if (last != null) {
+            configuration.setLast(last);
+        }
+        return configuration;
+    }
+
+    /**
+     *
+     * @return the number, null if the value is null
+     * @throws IOException if the value is not a number (a string holding a
+     * number is accepted, as by an ObjectMapper)
+     */
+    private static Long readLong(JsonParser parser, JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getValueAsLong();
+            case VALUE_STRING:
+                String text = parser.getText().trim();
+                if (text.isEmpty()) {
+                    return null;
+                }
+                try {
+                    return Long.valueOf(text);
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Expected a number for " + parser.getCurrentName() + " but found '" + text + "'", ex);
+                }
+            default:
+                throw new IOException("Expected a number for " + parser.getCurrentName() + " but found " + value);
+        }
+    }
+
+    private static Integer readInteger(JsonParser parser, JsonToken value) throws IOException {
+        Long number = readLong(parser, value);
+        if (number == null) {
+            return null;
+        }
+        if (number != number.intValue()) {
+            throw new IOException("Number out of range for " + parser.getCurrentName() + ": " + number);
+        }
+        return number.intValue();
+    }
+
+    /**
+     *
+     * @param payload
+     * @return the decoded cancel or null if the payload is empty
+     * @throws IOException if the payload is malformed
+     */
+    public DeviceTickerCancel readCancel(byte[] payload) throws IOException {
+        if (payload == null || payload.length == 0) {
+            return null;
+        }
+        String id = null;
+        try (JsonParser parser = factory.createParser(payload)) {
+            if (!startObject(parser)) {
+                return null;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("id".equals(name)) {
+                    id = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            requireEndObject(token);
+        }
+        return new DeviceTickerCancel(id);
+    }
+
+    /**
+     *
+     * @return false if the document is empty or null
+     */
+    private static boolean startObject(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Expected an object but found " + token);
+        }
+        return true;
+    }
+
+    private static void requireEndObject(JsonToken token) throws IOException {
+        if (token != JsonToken.END_OBJECT) {
+            throw new IOException("Expected a field or the end of the object but found " + token);
+        }
+    }
+}
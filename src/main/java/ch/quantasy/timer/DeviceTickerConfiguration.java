@@ -52,6 +52,8 @@ public class DeviceTickerConfiguration implements Comparable<DeviceTickerConfigu
     private Integer first;
     private Integer interval;
     private Integer last;
+    private String cron;
+    private String zone;
 
     /**
      *
@@ -141,6 +143,52 @@ public class DeviceTickerConfiguration implements Comparable<DeviceTickerConfigu
         this.interval = interval;
     }
 
+    /**
+     *
+     * @return cron expression (see {@link CronSchedule}) the ticker ticks at
+     * instead of every interval, null for fixed-rate ticks
+     */
+    public String getCron() {
+        return cron;
+    }
+
+    /**
+     *
+     * @param cron cron expression (see {@link CronSchedule}) the ticker ticks
+     * at, beginning at first and terminating at last. The interval is ignored.
+     * An empty expression is kept, as it returns a ticker to fixed-rate ticks
+     * once it is merged into the configuration of the ticker.
+     */
+    public void setCron(String cron) {
+        this.cron = cron;
+    }
+
+    /**
+     *
+     * @param cron
+     * @return the cron expression, null if it is empty
+     */
+    static String toCron(String cron) {
+        return cron == null || cron.isEmpty() ? null : cron;
+    }
+
+    /**
+     *
+     * @return zone id the cron expression is evaluated in, null for UTC
+     */
+    public String getZone() {
+        return zone;
+    }
+
+    /**
+     *
+     * @param zone zone id (i.e. Europe/Zurich) the cron expression is
+     * evaluated in
+     */
+    public void setZone(String zone) {
+        this.zone = zone;
+    }
+
     private DeviceTickerConfiguration() {
     }
 
@@ -160,8 +208,38 @@ public class DeviceTickerConfiguration implements Comparable<DeviceTickerConfigu
         this.last = last;
     }
 
+    /**
+     *
+     * @param id Identifier of the ticker to be configured
+     * @param epoch {@link #setEpoch(java.lang.Long) }
+     * @param first {@link #setFirst(java.lang.Integer) }
+     * @param last {@link #setLast(java.lang.Integer) }
+     * @param cron {@link #setCron(java.lang.String) }
+     * @param zone {@link #setZone(java.lang.String) }
+     */
+    public DeviceTickerConfiguration(String id, Long epoch, Integer first, Integer last, String cron, String zone) {
+        this(id, epoch, first, null, last);
+        this.cron = toCron(cron);
+        this.zone = zone;
+    }
+
     public DeviceTickerConfiguration(DeviceTickerConfiguration configuration) {
         this(configuration.id, configuration.epoch, configuration.first, configuration.interval, configuration.last);
+        this.cron = toCron(configuration.cron);
+        this.zone = configuration.zone;
+    }
+
+    /**
+     * Overwrites all fields, so that a decoded instance can be reused.
+     */
+    void set(String id, Long epoch, Integer first, Integer interval, Integer last, String cron, String zone) {
+        this.id = id;
+        this.epoch = epoch;
+        this.first = first;
+        this.interval = interval;
+        this.last = last;
+        this.cron = cron;
+        this.zone = zone;
     }
 
     @Override
@@ -171,47 +249,87 @@ public class DeviceTickerConfiguration implements Comparable<DeviceTickerConfigu
 
     @Override
     public String toString() {
-        return "DeviceTickerConfiguration{" + "id=" + id + ", epoch=" + epoch + ", first=" + first + ", interval=" + interval + ", last=" + last + '}';
+        return "DeviceTickerConfiguration{" + "id=" + id + ", epoch=" + epoch + ", first=" + first + ", interval=" + interval + ", last=" + last + ", cron=" + cron + ", zone=" + zone + '}';
     }
 
     public boolean isFinished() {
+        return isFinished(System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @param nowMillis current time in ms since Unix epoch, as given by the
+     * {@link TimerClock}
+     * @return true if no tick follows
+     */
+    public boolean isFinished(long nowMillis) {
         if (getLast() == null) {
-            if (getInterval() == null || getInterval() < 1) {
+            if (getCron() == null && (getInterval() == null || getInterval() < 1)) {
                 return true;
             }
             return false;
         }
-        return getLastInMillisFromNow() <= 0;
+        return getEpochDeltaMillis(nowMillis) + last <= 0;
     }
 
     public Long getLastInMillisFromNow() {
+        return getLastInMillisFromNow(System.currentTimeMillis());
+    }
+
+    public Long getLastInMillisFromNow(long nowMillis) {
         if (getLast() == null) {
             return null;
         }
-        return getEpochDelta() + getLast();
+        return getEpochDeltaMillis(nowMillis) + getLast();
     }
 
     public Long getFirstInMillisFromNow() {
+        return getFirstInMillisFromNow(System.currentTimeMillis());
+    }
+
+    public Long getFirstInMillisFromNow(long nowMillis) {
         if (getFirst() == null) {
             return null;
         }
-        Long a=System.currentTimeMillis();
-        Long x=getEpochDelta() + getFirst();
-        return x;
+        return getEpochDeltaMillis(nowMillis) + getFirst();
     }
 
     public boolean isFirstReached() {
+        return isFirstReached(System.currentTimeMillis());
+    }
+
+    public boolean isFirstReached(long nowMillis) {
         if (getFirst() == null) {
             return true;
         }
-        return getFirstInMillisFromNow() <= 0;
+        return getEpochDeltaMillis(nowMillis) + first <= 0;
     }
 
     public Long getEpochDelta() {
-        if (getEpoch() == null) {
+        return getEpochDeltaMillis();
+    }
+
+    /**
+     * Primitive variant of {@link #getEpochDelta()}, which does not allocate.
+     *
+     * @return ms from now to the epoch, 0 if no epoch is set
+     */
+    public long getEpochDeltaMillis() {
+        return getEpochDeltaMillis(System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @param nowMillis current time in ms since Unix epoch, as given by the
+     * {@link TimerClock}
+     * @return ms from the given time to the epoch, 0 if no epoch is set
+     */
+    public long getEpochDeltaMillis(long nowMillis) {
+        Long currentEpoch = epoch;
+        if (currentEpoch == null) {
             return 0L;
         }
-        return getEpoch() - System.currentTimeMillis();
+        return currentEpoch - nowMillis;
     }
 
 }
@@ -0,0 +1,133 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+/**
+ * Lateness statistics of a scheduled task, i.e. the time between the ideal
+ * and the actual start of each run.
+ *
+ * @author reto
+ */
+public class JitterStatistics {
+
+    private long count;
+    private long minNanos;
+    private long maxNanos;
+    private double meanNanos;
+    private double m2;
+
+    public JitterStatistics() {
+        minNanos = Long.MAX_VALUE;
+        maxNanos = Long.MIN_VALUE;
+    }
+
+    public JitterStatistics(JitterStatistics statistics) {
+        synchronized (statistics) {
+            this.count = statistics.count;
+            this.minNanos = statistics.minNanos;
+            this.maxNanos = statistics.maxNanos;
+            this.meanNanos = statistics.meanNanos;
+            this.m2 = statistics.m2;
+        }
+    }
+
+    /**
+     *
+     * @param latenessNanos actual minus ideal start in ns. Negative if the run
+     * started early.
+     */
+    public synchronized void record(long latenessNanos) {
+        count++;
+        minNanos = Math.min(minNanos, latenessNanos);
+        maxNanos = Math.max(maxNanos, latenessNanos);
+        double delta = latenessNanos - meanNanos;
+        meanNanos += delta / count;
+        m2 += delta * (latenessNanos - meanNanos);
+    }
+
+    /**
+     * Adds the runs of the given statistics to this one, as if they had been
+     * recorded here.
+     *
+     * @param statistics
+     */
+    public void merge(JitterStatistics statistics) {
+        JitterStatistics other = new JitterStatistics(statistics);
+        if (other.count == 0) {
+            return;
+        }
+        synchronized (this) {
+            long total = count + other.count;
+            double delta = other.meanNanos - meanNanos;
+            m2 += other.m2 + delta * delta * count * other.count / total;
+            meanNanos += delta * other.count / total;
+            count = total;
+            minNanos = Math.min(minNanos, other.minNanos);
+            maxNanos = Math.max(maxNanos, other.maxNanos);
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMinNanos() {
+        return count == 0 ? 0 : minNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return count == 0 ? 0 : maxNanos;
+    }
+
+    public synchronized double getMeanNanos() {
+        return meanNanos;
+    }
+
+    public synchronized double getStandardDeviationNanos() {
+        return count < 2 ? 0 : Math.sqrt(m2 / (count - 1));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JitterStatistics{" + "count=" + count + ", minNanos=" + getMinNanos() + ", maxNanos=" + getMaxNanos() + ", meanNanos=" + meanNanos + ", standardDeviationNanos=" + getStandardDeviationNanos() + '}';
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free HDR-style histogram of durations in ns. Values are recorded into
+ * log-linear buckets with 64 sub-buckets per power of two, hence the relative
+ * error of the reported values is below 2%. Negative values are recorded as
+ * 0.
+ *
+ * @author reto
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts;
+    private final LongAdder sum;
+    /**
+     * Counts and sum as of the previous interval snapshot
+     */
+    private final long[] intervalCounts;
+    private long intervalSum;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(64 * SUB_BUCKET_COUNT);
+        sum = new LongAdder();
+        intervalCounts = new long[counts.length()];
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    private static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return highest value recorded into the bucket
+     */
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     *
+     * @return consistent view of the histogram at the time of the call (apart
+     * from values recorded concurrently)
+     */
+    public Snapshot getSnapshot() {
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        return new Snapshot(snapshot, count, sum.sum());
+    }
+
+    /**
+     * Percentiles over the whole lifetime hide what happened lately. This
+     * snapshot only covers the values recorded since the previous call (or
+     * since the creation or reset of the histogram), without disturbing
+     * {@link #getSnapshot()}.
+     *
+     * @return view of the values recorded since the previous interval
+     * snapshot (apart from values recorded concurrently, which are then
+     * accounted to the next one)
+     */
+    public synchronized Snapshot getIntervalSnapshot() {
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            long current = counts.get(i);
+            snapshot[i] = current - intervalCounts[i];
+            intervalCounts[i] = current;
+            count += snapshot[i];
+        }
+        long currentSum = sum.sum();
+        long intervalSnapshotSum = currentSum - intervalSum;
+        intervalSum = currentSum;
+        return new Snapshot(snapshot, count, intervalSnapshotSum);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+            intervalCounts[i] = 0;
+        }
+        sum.reset();
+        intervalSum = 0;
+    }
+
+    public static class Snapshot {
+
+        private final long count;
+        private final double meanNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.count = count;
+            this.meanNanos = count == 0 ? 0 : (double) sum / count;
+            this.p50Nanos = percentile(counts, count, 0.5);
+            this.p90Nanos = percentile(counts, count, 0.9);
+            this.p99Nanos = percentile(counts, count, 0.99);
+            this.p999Nanos = percentile(counts, count, 0.999);
+            this.maxNanos = percentile(counts, count, 1.0);
+        }
+
+        private static long percentile(long[] counts, long count, double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile));
+            long seen = 0;
+            int highest = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                highest = i;
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return highestValue(highest);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getP999Nanos() {
+            return p999Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" + "count=" + count + ", meanNanos=" + meanNanos + ", p50Nanos=" + p50Nanos + ", p90Nanos=" + p90Nanos + ", p99Nanos=" + p99Nanos + ", p999Nanos=" + p999Nanos + ", maxNanos=" + maxNanos + '}';
+        }
+    }
+}
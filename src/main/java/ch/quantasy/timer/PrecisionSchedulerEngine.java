@@ -0,0 +1,259 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link SchedulerEngine} for high-precision ticking. Each run of a task has
+ * an absolute {@link System#nanoTime()} deadline. The k-th run of a fixed-rate
+ * task is due at first + k * period, hence a late run does not shift the
+ * following ones and drift is corrected at every run.
+ *
+ * The single worker thread parks until spinNanos before the deadline and then
+ * spins for the rest, trading CPU for precision. The lateness of each run is
+ * recorded in the {@link JitterStatistics} of the task. Cancelling only marks
+ * the task, so it does not contend for the queue with the worker. The worker
+ * drops a cancelled task once it reaches the head and purges the queue as
+ * soon as about half of it is cancelled, so cancelling does not pile up
+ * entries.
+ *
+ * @author reto
+ */
+public class PrecisionSchedulerEngine implements SchedulerEngine {
+
+    private final PriorityQueue<PrecisionTask> queue;
+    /**
+     * Cancelled tasks assumed to be still queued. A task cancelled while
+     * running is counted as well, which only brings the purge forward.
+     */
+    private final AtomicInteger cancelledTasks;
+    private final long spinNanos;
+    private final Thread worker;
+    private volatile boolean isShutdown;
+
+    public PrecisionSchedulerEngine() {
+        this(200, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     *
+     * @param spin time before the deadline from which on the worker spins
+     * instead of parking
+     * @param unit unit of the spin
+     */
+    public PrecisionSchedulerEngine(long spin, TimeUnit unit) {
+        this(spin, unit, (Runnable r) -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+    }
+
+    public PrecisionSchedulerEngine(long spin, TimeUnit unit, ThreadFactory threadFactory) {
+        if (spin < 0) {
+            throw new IllegalArgumentException("spin must not be negative: " + spin);
+        }
+        this.spinNanos = unit.toNanos(spin);
+        this.queue = new PriorityQueue<>();
+        this.cancelledTasks = new AtomicInteger();
+        this.worker = threadFactory.newThread(this::work);
+        this.worker.start();
+    }
+
+    @Override
+    public boolean isPrecise() {
+        return true;
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        return enqueue(new PrecisionTask(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)), 0));
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than 0: " + period);
+        }
+        return enqueue(new PrecisionTask(task, System.nanoTime() + Math.max(0, unit.toNanos(initialDelay)), unit.toNanos(period)));
+    }
+
+    @Override
+    public void shutdown() {
+        isShutdown = true;
+        LockSupport.unpark(worker);
+    }
+
+    private PrecisionTask enqueue(PrecisionTask task) {
+        if (isShutdown) {
+            throw new IllegalStateException("Engine has been shut down");
+        }
+        boolean isHead;
+        synchronized (queue) {
+            queue.add(task);
+            isHead = queue.peek() == task;
+        }
+        if (isHead) {
+            LockSupport.unpark(worker);
+        }
+        return task;
+    }
+
+    private void work() {
+        while (!isShutdown) {
+            PrecisionTask task;
+            synchronized (queue) {
+                purgeCancelled();
+                task = queue.peek();
+                while (task != null && task.isCancelled()) {
+                    queue.poll();
+                    cancelledTasks.decrementAndGet();
+                    task = queue.peek();
+                }
+            }
+            if (task == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            long remaining = task.deadline - System.nanoTime();
+            if (remaining > spinNanos) {
+                //Woken up early if a new head arrives
+                LockSupport.parkNanos(this, remaining - spinNanos);
+                continue;
+            }
+            while (task.deadline - System.nanoTime() > 0) {
+                //spin
+            }
+            synchronized (queue) {
+                if (queue.peek() != task) {
+                    continue;
+                }
+                queue.poll();
+                if (task.isCancelled()) {
+                    cancelledTasks.decrementAndGet();
+                    continue;
+                }
+            }
+            task.jitterStatistics.record(System.nanoTime() - task.deadline);
+            try {
+                task.task.run();
+            } catch (Throwable th) {
+                Logger.getLogger(PrecisionSchedulerEngine.class.getName()).log(Level.SEVERE, null, th);
+            }
+            if (task.period > 0) {
+                task.deadline = task.firstDeadline + (++task.runs) * task.period;
+                synchronized (queue) {
+                    //Cancelled while running, hence not to be queued again
+                    if (!task.isCancelled()) {
+                        queue.add(task);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the worker while holding the queue. The purge costs O(n), but
+     * only after about n/2 cancels.
+     */
+    private void purgeCancelled() {
+        int cancelled = cancelledTasks.get();
+        if (cancelled > 0 && cancelled >= queue.size() / 2) {
+            queue.removeIf(PrecisionTask::isCancelled);
+            cancelledTasks.addAndGet(-cancelled);
+        }
+    }
+
+    private final class PrecisionTask implements ScheduledTask, Comparable<PrecisionTask> {
+
+        private final Runnable task;
+        private final long firstDeadline;
+        private final long period;
+        private final JitterStatistics jitterStatistics;
+        private long deadline;
+        private long runs;
+        private final AtomicBoolean isCancelled;
+
+        public PrecisionTask(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.firstDeadline = deadline;
+            this.deadline = deadline;
+            this.period = period;
+            this.jitterStatistics = new JitterStatistics();
+            this.isCancelled = new AtomicBoolean();
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!isCancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            cancelledTasks.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled.get();
+        }
+
+        @Override
+        public JitterStatistics getJitterStatistics() {
+            return new JitterStatistics(jitterStatistics);
+        }
+
+        @Override
+        public int compareTo(PrecisionTask o) {
+            return Long.compare(deadline - o.deadline, 0);
+        }
+    }
+}
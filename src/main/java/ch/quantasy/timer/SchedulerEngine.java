@@ -0,0 +1,121 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Engine driving the {@link TimerDevice}-tickers. Implementations only have
+ * to provide one-shot and fixed-rate scheduling of plain {@link Runnable}s.
+ *
+ * @author reto
+ */
+public interface SchedulerEngine {
+
+    /**
+     *
+     * @param task the task to be run once
+     * @param delay delay until the task is run
+     * @param unit unit of the delay
+     * @return handle to cancel the scheduled task
+     */
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     *
+     * @param task the task to be run repeatedly
+     * @param initialDelay delay until the task is run the first time
+     * @param period period between two consecutive runs (measured from the
+     * ideal start of the run, not from its end)
+     * @param unit unit of the initialDelay and period
+     * @return handle to cancel the scheduled task
+     */
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit);
+
+    /**
+     * Stops the engine. Scheduled tasks will not be run anymore.
+     */
+    public void shutdown();
+
+    /**
+     *
+     * @return true if the engine runs against absolute deadlines, so the
+     * {@link TimerDevice} aligns the tickers to the phase given by
+     * epoch/first/interval.
+     */
+    public default boolean isPrecise() {
+        return false;
+    }
+
+    /**
+     *
+     * @return clock the delays of this engine are measured against. The
+     * {@link TimerDevice} takes its time from here.
+     */
+    public default TimerClock getClock() {
+        return TimerClock.SYSTEM;
+    }
+
+    /**
+     * Handle of a task scheduled by a {@link SchedulerEngine}
+     */
+    public interface ScheduledTask {
+
+        /**
+         *
+         * @return true if this call cancelled the task, false if it has
+         * already been cancelled or has run to completion
+         */
+        public boolean cancel();
+
+        public boolean isCancelled();
+
+        /**
+         *
+         * @return snapshot of the lateness of the runs so far, null if the
+         * engine does not measure it
+         */
+        public default JitterStatistics getJitterStatistics() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Partitions the tickers by the hash of their id across independent
+ * {@link TimerDevice}s (shards). Each shard has its own registry and its own
+ * scheduler engine, so updates, cancels and ticks of different shards never
+ * contend. Statistics, dispatcher and journal are shared by all shards.
+ *
+ * @author reto
+ */
+public class ShardedTimerDevice {
+
+    private final TimerDevice[] shards;
+    private final TimerDeviceCallback callback;
+    private final TimerDeviceStatistics statistics;
+    private volatile TickerJournal journal;
+    private ScheduledExecutorService compactionService;
+
+    /**
+     * A single shard driven by the given engine, which behaves like a plain
+     * {@link TimerDevice}.
+     *
+     * @param callback
+     * @param schedulerEngine
+     */
+    public ShardedTimerDevice(TimerDeviceCallback callback, SchedulerEngine schedulerEngine) {
+        this(callback, 1, () -> schedulerEngine);
+    }
+
+    /**
+     *
+     * @param callback
+     * @param shardCount number of shards, i.e. the number of cores
+     * @param schedulerEngines creates the engine of each shard. In order to
+     * have a single thread owning a shard, each engine should run on one
+     * thread, i.e. {@code new ExecutorSchedulerEngine(1)}
+     */
+    public ShardedTimerDevice(TimerDeviceCallback callback, int shardCount, Supplier<SchedulerEngine> schedulerEngines) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.callback = callback;
+        this.statistics = new TimerDeviceStatistics();
+        this.shards = new TimerDevice[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new TimerDevice(callback, schedulerEngines.get(), statistics);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public TimerDevice getShard(int index) {
+        return shards[index];
+    }
+
+    /**
+     *
+     * @param id
+     * @return the shard owning the ticker of the given id
+     */
+    public TimerDevice getShard(String id) {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        int hash = id.hashCode();
+        //Spread the higher bits, as ids often only differ at their end.
+        hash ^= (hash >>> 16);
+        return shards[Math.floorMod(hash, shards.length)];
+    }
+
+    /**
+     *
+     * @return engine of the first shard, which can be used for housekeeping
+     * such as publishing statistics
+     */
+    public SchedulerEngine getSchedulerEngine() {
+        return shards[0].getSchedulerEngine();
+    }
+
+    public TimerDeviceStatistics getStatistics() {
+        return statistics;
+    }
+
+    public int getTickerCount() {
+        int count = 0;
+        for (TimerDevice shard : shards) {
+            count += shard.getTickerCount();
+        }
+        return count;
+    }
+
+    public boolean hasTicker(String id) {
+        return getShard(id).hasTicker(id);
+    }
+
+    public DeviceTickerConfiguration getTickerConfiguration(String id) {
+        return getShard(id).getTickerConfiguration(id);
+    }
+
+    public JitterStatistics getJitterStatistics(String id) {
+        return getShard(id).getJitterStatistics(id);
+    }
+
+    /**
+     *
+     * @param dispatcher shared by all shards, null in order to run the
+     * callbacks on the scheduler threads
+     */
+    public void setDispatcher(TickDispatcher dispatcher) {
+        for (TimerDevice shard : shards) {
+            shard.setDispatcher(dispatcher);
+        }
+    }
+
+    public TickDispatcher getDispatcher() {
+        return shards[0].getDispatcher();
+    }
+
+    /**
+     *
+     * @param overloadPolicy applied by all shards
+     * @param maxLagMillis see
+     * {@link TimerDevice#setOverloadPolicy(ch.quantasy.timer.TimerDevice.OverloadPolicy, long)}
+     */
+    public void setOverloadPolicy(TimerDevice.OverloadPolicy overloadPolicy, long maxLagMillis) {
+        for (TimerDevice shard : shards) {
+            shard.setOverloadPolicy(overloadPolicy, maxLagMillis);
+        }
+    }
+
+    /**
+     * Restores the tickers found in the journal into their shards and
+     * journals all further updates and removals of all shards. As the
+     * journal is shared, the shard count may change between restarts.
+     * Tickers configured before (i.e. by intents arriving while the journal
+     * is loaded) are kept and journaled by an immediate compaction.
+     *
+     * @param journal
+     * @param compactionPeriodMillis period in ms the journal is compacted
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized void setJournal(TickerJournal journal, long compactionPeriodMillis) throws IOException {
+        if (this.journal != null) {
+            throw new IllegalStateException("Journal already set");
+        }
+        for (DeviceTickerConfiguration configuration : journal.load()) {
+            if (configuration.getId() == null) {
+                continue;
+            }
+            getShard(configuration.getId()).restoreTickerConfiguration(configuration);
+        }
+        for (TimerDevice shard : shards) {
+            shard.attachJournal(journal);
+        }
+        this.journal = journal;
+        journal.compact(this::getConfigurations);
+        compactionService = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        compactionService.scheduleWithFixedDelay(() -> {
+            try {
+                journal.compact(this::getConfigurations);
+                journal.force();
+            } catch (IOException ex) {
+                Logger.getLogger(ShardedTimerDevice.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }, compactionPeriodMillis, compactionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     * @return copies of the configurations of all tickers of all shards
+     */
+    public List<DeviceTickerConfiguration> getConfigurations() {
+        List<DeviceTickerConfiguration> configurations = new ArrayList<>(getTickerCount());
+        for (TimerDevice shard : shards) {
+            configurations.addAll(shard.getConfigurations());
+        }
+        return configurations;
+    }
+
+    public void setTickerConfiguration(DeviceTickerConfiguration configuration) {
+        if (configuration == null || configuration.getId() == null) {
+            return;
+        }
+        getShard(configuration.getId()).setTickerConfiguration(configuration);
+    }
+
+    /**
+     * Takes over a ticker configured elsewhere (i.e. by another node) in phase
+     * with its epoch/first/interval.
+     *
+     * @param configuration complete configuration of the ticker
+     */
+    public void restoreTickerConfiguration(DeviceTickerConfiguration configuration) {
+        if (configuration == null || configuration.getId() == null) {
+            return;
+        }
+        getShard(configuration.getId()).restoreTickerConfiguration(configuration);
+    }
+
+    /**
+     * Removes a ticker without notifying the callback, as it is continued
+     * elsewhere (i.e. by another node).
+     *
+     * @param id
+     */
+    public void release(String id) {
+        getShard(id).cancel(new DeviceTickerCancel(id), new ArrayList<>(1));
+    }
+
+    public void cancel(DeviceTickerCancel cancel) {
+        if (cancel == null || cancel.getId() == null) {
+            return;
+        }
+        getShard(cancel.getId()).cancel(cancel);
+    }
+
+    /**
+     * Routes each configuration and cancel of the bulk to its shard, but
+     * notifies the callback only once for the whole bulk.
+     *
+     * @param bulk
+     */
+    public void applyBulk(DeviceTickerBulk bulk) {
+        if (bulk == null) {
+            return;
+        }
+        List<DeviceTickerConfiguration> updated = new ArrayList<>();
+        List<DeviceTickerConfiguration> removed = new ArrayList<>();
+        if (bulk.getConfigurations() != null) {
+            for (DeviceTickerConfiguration configuration : bulk.getConfigurations()) {
+                if (configuration == null || configuration.getId() == null) {
+                    continue;
+                }
+                getShard(configuration.getId()).setTickerConfiguration(configuration, updated);
+            }
+        }
+        if (bulk.getCancels() != null) {
+            for (DeviceTickerCancel cancel : bulk.getCancels()) {
+                if (cancel == null || cancel.getId() == null) {
+                    continue;
+                }
+                getShard(cancel.getId()).cancel(cancel, removed);
+            }
+        }
+        if (!updated.isEmpty() || !removed.isEmpty()) {
+            callback.tickerConfigurationsChanged(updated, removed);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decouples the detection of a tick from its delivery. The scheduler threads
+ * only enqueue, the worker threads of the dispatcher run the callbacks (and
+ * hence the publication). Every key is bound to one worker, so the callbacks
+ * of one ticker keep their order.
+ *
+ * Only ticks are subject to the capacity and the {@link OverflowPolicy}.
+ * Control callbacks (i.e. the update or removal of a ticker) are always
+ * queued, as dropping them would leave the state of the ticker behind.
+ *
+ * @author reto
+ */
+public class TickDispatcher {
+
+    /**
+     * What happens to a tick if the queue of a worker is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The scheduler thread waits for room (backpressure)
+         */
+        BLOCK,
+        /**
+         * The new tick is dropped
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest queued tick is dropped in favour of the new one
+         */
+        DROP_OLDEST,
+        /**
+         * The scheduler thread runs the tick itself, unless callbacks of the
+         * same key are still queued, in which case it waits for room. The
+         * callbacks of the key queued meanwhile wait for the run of the
+         * scheduler thread, so the key keeps its order.
+         */
+        CALLER_RUNS
+    }
+
+    private final Worker[] workers;
+    private final Thread[] threads;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicInteger highWatermark;
+    private final LongAdder dispatched;
+    private final LongAdder dropped;
+    private final LatencyHistogram dispatchLag;
+    /**
+     * Gate of the callbacks queued or running per key, only kept with
+     * {@link OverflowPolicy#CALLER_RUNS}
+     */
+    private final Map<String, Gate> pending;
+
+    public TickDispatcher(int threads, int capacity, OverflowPolicy overflowPolicy) {
+        this(threads, capacity, overflowPolicy, (Runnable r) -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     *
+     * @param threads number of worker threads
+     * @param capacity ticks the queue of each worker holds
+     * @param overflowPolicy
+     * @param threadFactory
+     */
+    public TickDispatcher(int threads, int capacity, OverflowPolicy overflowPolicy, ThreadFactory threadFactory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be greater than 0: " + threads);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0: " + capacity);
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.highWatermark = new AtomicInteger();
+        this.dispatched = new LongAdder();
+        this.dropped = new LongAdder();
+        this.dispatchLag = new LatencyHistogram();
+        this.pending = overflowPolicy == OverflowPolicy.CALLER_RUNS ? new ConcurrentHashMap<>() : null;
+        this.workers = new Worker[threads];
+        this.threads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(capacity);
+            this.threads[i] = threadFactory.newThread(workers[i]);
+            this.threads[i].start();
+        }
+    }
+
+    /**
+     * Stops the workers. Callbacks still queued are not run anymore.
+     */
+    public void shutdown() {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Dispatches a tick, which is subject to the {@link OverflowPolicy}.
+     *
+     * @param key callbacks with the same key are run in order
+     * @param callback
+     * @return false if the tick has been dropped
+     */
+    public boolean dispatch(String key, Runnable callback) {
+        Worker worker = getWorker(key);
+        Dispatch dispatch = new Dispatch(key, callback, true);
+        boolean isQueued = worker.ticks.tryAcquire();
+        if (!isQueued) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    isQueued = acquire(worker);
+                    break;
+                case DROP_OLDEST:
+                    if (worker.dropOldestTick()) {
+                        dropped.increment();
+                        isQueued = true;
+                    } else {
+                        isQueued = worker.ticks.tryAcquire();
+                    }
+                    break;
+                case CALLER_RUNS:
+                    if (enterCallerRun(key)) {
+                        dispatched.increment();
+                        dispatch.isCallerRun = true;
+                        dispatch.run();
+                        return true;
+                    }
+                    isQueued = acquire(worker);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!isQueued) {
+            dropped.increment();
+            return false;
+        }
+        enqueue(worker, dispatch);
+        return true;
+    }
+
+    /**
+     * Dispatches a control callback (i.e. the update or removal of a ticker),
+     * which is queued in any case, even beyond the capacity.
+     *
+     * @param key callbacks with the same key are run in order
+     * @param callback
+     */
+    public void dispatchControl(String key, Runnable callback) {
+        enqueue(getWorker(key), new Dispatch(key, callback, false));
+    }
+
+    private Worker getWorker(String key) {
+        return workers[(key.hashCode() & Integer.MAX_VALUE) % workers.length];
+    }
+
+    private boolean acquire(Worker worker) {
+        try {
+            worker.ticks.acquire();
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void enqueue(Worker worker, Dispatch dispatch) {
+        if (pending != null) {
+            enter(dispatch.key);
+        }
+        worker.queue.add(dispatch);
+        dispatched.increment();
+        highWatermark.accumulateAndGet(worker.queue.size(), Math::max);
+    }
+
+    private void enter(String key) {
+        pending.compute(key, (k, gate) -> {
+            gate = gate == null ? new Gate(false) : gate;
+            gate.count++;
+            return gate;
+        });
+    }
+
+    /**
+     *
+     * @return true if no callback of the key is queued or running, hence the
+     * scheduler thread may run the callback itself, holding the gate of the
+     * key
+     */
+    private boolean enterCallerRun(String key) {
+        Gate[] entered = new Gate[1];
+        pending.computeIfAbsent(key, (k) -> entered[0] = new Gate(true));
+        return entered[0] != null;
+    }
+
+    private void exit(String key) {
+        pending.computeIfPresent(key, (k, gate) -> --gate.count > 0 ? gate : null);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     *
+     * @return number of callbacks currently waiting
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     *
+     * @return highest depth a single worker queue has reached
+     */
+    public int getHighWatermark() {
+        return highWatermark.get();
+    }
+
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     *
+     * @return time the callbacks waited in the queue
+     */
+    public LatencyHistogram getDispatchLag() {
+        return dispatchLag;
+    }
+
+    private final class Dispatch implements Runnable {
+
+        private final String key;
+        private final Runnable callback;
+        private final boolean isTick;
+        private final long enqueued;
+        private boolean isCallerRun;
+
+        public Dispatch(String key, Runnable callback, boolean isTick) {
+            this.key = key;
+            this.callback = callback;
+            this.isTick = isTick;
+            this.enqueued = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (pending != null && !isCallerRun) {
+                    Gate gate = pending.get(key);
+                    if (gate != null) {
+                        gate.await();
+                    }
+                }
+                dispatchLag.record(System.nanoTime() - enqueued);
+                callback.run();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable th) {
+                Logger.getLogger(TickDispatcher.class.getName()).log(Level.SEVERE, null, th);
+            } finally {
+                if (pending != null) {
+                    if (isCallerRun) {
+                        pending.get(key).open();
+                    }
+                    exit(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Callbacks of a key queued or running, and whether a scheduler thread is
+     * running one of them itself. The count is only changed while the map
+     * holds the key.
+     */
+    private static final class Gate {
+
+        private int count;
+        private boolean isCallerRunning;
+
+        private Gate(boolean isCallerRunning) {
+            this.count = isCallerRunning ? 1 : 0;
+            this.isCallerRunning = isCallerRunning;
+        }
+
+        private synchronized void await() throws InterruptedException {
+            while (isCallerRunning) {
+                wait();
+            }
+        }
+
+        private synchronized void open() {
+            isCallerRunning = false;
+            notifyAll();
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        private final BlockingQueue<Dispatch> queue;
+        /**
+         * Room for ticks within the queue
+         */
+        private final Semaphore ticks;
+
+        public Worker(int capacity) {
+            this.queue = new LinkedBlockingQueue<>();
+            this.ticks = new Semaphore(capacity);
+        }
+
+        /**
+         * Removes the oldest queued tick, whose room is then taken over by
+         * the caller.
+         *
+         * @return false if no tick is queued anymore
+         */
+        private boolean dropOldestTick() {
+            for (Dispatch dispatch : queue) {
+                if (dispatch.isTick && queue.remove(dispatch)) {
+                    if (pending != null) {
+                        exit(dispatch.key);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Dispatch dispatch = queue.take();
+                    if (dispatch.isTick) {
+                        ticks.release();
+                    }
+                    dispatch.run();
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the ticker configurations and removals, allowing a
+ * {@link TimerDevice} to restore its tickers after a restart.
+ *
+ * The journal is a sequence of segments (journal-&lt;n&gt;), each one a
+ * memory-mapped file of a fixed capacity. Appending a record is a copy into
+ * the mapped buffer, a full segment is rolled over to the next one. A
+ * compaction rolls over as well and writes a snapshot (snapshot-&lt;n&gt;)
+ * of all current configurations, after which the segments before n are
+ * deleted. Restoring reads the latest snapshot and replays all segments from
+ * its index on. Each record carries the full configuration, so replaying a
+ * record already contained in the snapshot does no harm.
+ *
+ * The mapped segments survive a crash of the process, {@link #force()} has to
+ * be called in order to survive a crash of the operating system. A rolled
+ * over segment is forced by the next call as well, so appending never waits
+ * for the storage device.
+ *
+ * The records are small (around 100 bytes), hence they are encoded into
+ * buffers sized to the records rather than to the segments.
+ *
+ * @author reto
+ */
+public class TickerJournal implements Closeable {
+
+    private static final String SEGMENT = "journal-";
+    private static final String SNAPSHOT = "snapshot-";
+    private static final byte CONFIGURED = 1;
+    private static final byte REMOVED = 2;
+    private static final int HAS_EPOCH = 1;
+    private static final int HAS_FIRST = 2;
+    private static final int HAS_INTERVAL = 4;
+    private static final int HAS_LAST = 8;
+    private static final int HAS_CRON = 16;
+    private static final int HAS_ZONE = 32;
+    private static final int RECORD_HEADER = 8;
+    private static final int INITIAL_RECORD_CAPACITY = 256;
+    private static final int SNAPSHOT_BUFFER_CAPACITY = 64 * 1024;
+
+    private final Path directory;
+    private final int segmentCapacity;
+    private ByteBuffer recordBuffer;
+    private final CRC32 crc;
+    private final Object compactionLock;
+    /**
+     * Rolled over segments not yet forced to the storage device
+     */
+    private final Deque<MappedByteBuffer> unforcedSegments;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+
+    /**
+     *
+     * @param directory directory holding the segments and snapshots
+     * @param segmentCapacity capacity of one segment in bytes
+     * @throws IOException
+     */
+    public TickerJournal(Path directory, int segmentCapacity) throws IOException {
+        if (segmentCapacity < 1024) {
+            throw new IllegalArgumentException("segmentCapacity must be at least 1024: " + segmentCapacity);
+        }
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+        this.recordBuffer = ByteBuffer.allocate(INITIAL_RECORD_CAPACITY);
+        this.crc = new CRC32();
+        this.compactionLock = new Object();
+        this.unforcedSegments = new ArrayDeque<>();
+        Files.createDirectories(directory);
+        long latest = -1;
+        for (long index : indices(SEGMENT).keySet()) {
+            latest = Math.max(latest, index);
+        }
+        for (long index : indices(SNAPSHOT).keySet()) {
+            latest = Math.max(latest, index);
+        }
+        openSegment(latest + 1);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentCapacity() {
+        return segmentCapacity;
+    }
+
+    /**
+     * Reads the latest snapshot and replays the segments following it.
+     *
+     * @return the configurations, sorted by the time of their latest update
+     * @throws IOException
+     */
+    public synchronized Collection<DeviceTickerConfiguration> load() throws IOException {
+        Map<String, DeviceTickerConfiguration> configurations = new LinkedHashMap<>();
+        TreeMap<Long, Path> snapshots = indices(SNAPSHOT);
+        long first = 0;
+        if (!snapshots.isEmpty()) {
+            first = snapshots.lastKey();
+            replay(snapshots.lastEntry().getValue(), configurations);
+        }
+        for (Map.Entry<Long, Path> entry : indices(SEGMENT).tailMap(first).entrySet()) {
+            if (entry.getKey() < segmentIndex) {
+                replay(entry.getValue(), configurations);
+            }
+        }
+        return new ArrayList<>(configurations.values());
+    }
+
+    public synchronized void configured(DeviceTickerConfiguration configuration) throws IOException {
+        append(CONFIGURED, configuration.getId(), configuration);
+    }
+
+    public synchronized void removed(String id) throws IOException {
+        append(REMOVED, id, null);
+    }
+
+    /**
+     * Rolls over to a new segment, writes the snapshot and deletes all
+     * segments and snapshots it covers. The configurations have to be
+     * collected after the roll over, hence they are supplied lazily.
+     *
+     * @param configurations supplies all current configurations
+     * @throws IOException
+     */
+    public void compact(Supplier<Collection<DeviceTickerConfiguration>> configurations) throws IOException {
+        synchronized (compactionLock) {
+            long snapshotIndex;
+            synchronized (this) {
+                openSegment(segmentIndex + 1);
+                snapshotIndex = segmentIndex;
+            }
+            Path temporary = directory.resolve(SNAPSHOT + snapshotIndex + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(Math.min(segmentCapacity, SNAPSHOT_BUFFER_CAPACITY));
+                CRC32 snapshotCrc = new CRC32();
+                for (DeviceTickerConfiguration configuration : configurations.get()) {
+                    while (!encode(buffer, snapshotCrc, CONFIGURED, configuration.getId(), configuration)) {
+                        if (buffer.position() == 0) {
+                            buffer = ByteBuffer.allocate(2 * buffer.capacity());
+                            continue;
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                }
+                buffer.putInt(0);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(SNAPSHOT + snapshotIndex), StandardCopyOption.ATOMIC_MOVE);
+            for (Path path : indices(SEGMENT).headMap(snapshotIndex).values()) {
+                Files.deleteIfExists(path);
+            }
+            for (Path path : indices(SNAPSHOT).headMap(snapshotIndex).values()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Forces the current segment and the segments rolled over since the
+     * previous call to the storage device. The journal is not locked
+     * meanwhile, so appending goes on.
+     */
+    public void force() {
+        List<MappedByteBuffer> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(unforcedSegments);
+            unforcedSegments.clear();
+            segments.add(segment);
+        }
+        for (MappedByteBuffer unforced : segments) {
+            unforced.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        synchronized (this) {
+            segment.force();
+            segmentChannel.close();
+        }
+    }
+
+    private void append(byte type, String id, DeviceTickerConfiguration configuration) throws IOException {
+        recordBuffer.clear();
+        while (!encode(recordBuffer, crc, type, id, configuration)) {
+            if (recordBuffer.capacity() >= segmentCapacity) {
+                throw new IOException("Record exceeds segment capacity: " + id);
+            }
+            recordBuffer = ByteBuffer.allocate(Math.min(segmentCapacity, 2 * recordBuffer.capacity()));
+        }
+        recordBuffer.flip();
+        //Keep room for the terminating 0
+        if (segment.remaining() < recordBuffer.remaining() + 4) {
+            openSegment(segmentIndex + 1);
+        }
+        segment.put(recordBuffer);
+    }
+
+    private void openSegment(long index) throws IOException {
+        if (segmentChannel != null) {
+            //Forced by the next force(), not while holding the journal
+            unforcedSegments.add(segment);
+            segmentChannel.close();
+        }
+        segmentIndex = index;
+        segmentChannel = FileChannel.open(directory.resolve(SEGMENT + index), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentCapacity);
+    }
+
+    /**
+     * Encodes a record: length, crc32, type, mask, id, present fields.
+     *
+     * @return false if the buffer is too small
+     */
+    private static boolean encode(ByteBuffer buffer, CRC32 crc, byte type, String id, DeviceTickerConfiguration configuration) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int mask = 0;
+        if (configuration != null) {
+            mask |= configuration.getEpoch() != null ? HAS_EPOCH : 0;
+            mask |= configuration.getFirst() != null ? HAS_FIRST : 0;
+            mask |= configuration.getInterval() != null ? HAS_INTERVAL : 0;
+            mask |= configuration.getLast() != null ? HAS_LAST : 0;
+            mask |= configuration.getCron() != null ? HAS_CRON : 0;
+            mask |= configuration.getZone() != null ? HAS_ZONE : 0;
+        }
+        byte[] cronBytes = (mask & HAS_CRON) != 0 ? configuration.getCron().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] zoneBytes = (mask & HAS_ZONE) != 0 ? configuration.getZone().getBytes(StandardCharsets.UTF_8) : null;
+        int length = 2 + 4 + idBytes.length + 8 + 4 + 4 + 4
+                + (cronBytes == null ? 0 : 4 + cronBytes.length) + (zoneBytes == null ? 0 : 4 + zoneBytes.length);
+        if (buffer.remaining() < RECORD_HEADER + length + 4) {
+            return false;
+        }
+        int start = buffer.position();
+        buffer.position(start + RECORD_HEADER);
+        buffer.put(type).put((byte) mask).putInt(idBytes.length).put(idBytes);
+        if ((mask & HAS_EPOCH) != 0) {
+            buffer.putLong(configuration.getEpoch());
+        }
+        if ((mask & HAS_FIRST) != 0) {
+            buffer.putInt(configuration.getFirst());
+        }
+        if ((mask & HAS_INTERVAL) != 0) {
+            buffer.putInt(configuration.getInterval());
+        }
+        if ((mask & HAS_LAST) != 0) {
+            buffer.putInt(configuration.getLast());
+        }
+        if (cronBytes != null) {
+            buffer.putInt(cronBytes.length).put(cronBytes);
+        }
+        if (zoneBytes != null) {
+            buffer.putInt(zoneBytes.length).put(zoneBytes);
+        }
+        int end = buffer.position();
+        crc.reset();
+        crc.update(buffer.array(), start + RECORD_HEADER, end - start - RECORD_HEADER);
+        buffer.putInt(start, end - start - RECORD_HEADER);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return true;
+    }
+
+    private void replay(Path path, Map<String, DeviceTickerConfiguration> configurations) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] body = new byte[INITIAL_RECORD_CAPACITY];
+        CRC32 check = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return;
+            }
+            if (length > body.length) {
+                body = new byte[Math.max(length, 2 * body.length)];
+            }
+            buffer.get(body, 0, length);
+            check.reset();
+            check.update(body, 0, length);
+            if ((int) check.getValue() != checksum) {
+                //Torn write, the rest of the segment is lost
+                return;
+            }
+            ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+            byte type = record.get();
+            int mask = record.get();
+            byte[] idBytes = new byte[record.getInt()];
+            record.get(idBytes);
+            String id = new String(idBytes, StandardCharsets.UTF_8);
+            configurations.remove(id);
+            if (type == CONFIGURED) {
+                Long epoch = (mask & HAS_EPOCH) != 0 ? record.getLong() : null;
+                Integer first = (mask & HAS_FIRST) != 0 ? record.getInt() : null;
+                Integer interval = (mask & HAS_INTERVAL) != 0 ? record.getInt() : null;
+                Integer last = (mask & HAS_LAST) != 0 ? record.getInt() : null;
+                DeviceTickerConfiguration configuration = new DeviceTickerConfiguration(id, epoch, first, interval, last);
+                if ((mask & HAS_CRON) != 0) {
+                    configuration.setCron(readString(record));
+                }
+                if ((mask & HAS_ZONE) != 0) {
+                    configuration.setZone(readString(record));
+                }
+                configurations.put(id, configuration);
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private TreeMap<Long, Path> indices(String prefix) throws IOException {
+        TreeMap<Long, Path> indices = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path path : stream) {
+                try {
+                    indices.put(Long.parseLong(path.getFileName().toString().substring(prefix.length())), path);
+                } catch (NumberFormatException ex) {
+                    //i.e. a temporary snapshot
+                }
+            }
+        }
+        return indices;
+    }
+
+    /**
+     *
+     * @return the segments and snapshots currently in use
+     * @throws IOException
+     */
+    public List<Path> getFiles() throws IOException {
+        List<Path> files = new ArrayList<>(indices(SNAPSHOT).values());
+        files.addAll(indices(SEGMENT).values());
+        return files;
+    }
+}
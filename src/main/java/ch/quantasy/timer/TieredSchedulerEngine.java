@@ -0,0 +1,333 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SchedulerEngine} splitting the tasks into two tiers by their delay
+ * (or period). Tasks due within the boundary are passed through to the fine
+ * engine. Tasks due later are kept in a coarse tier, bucketed by the coarse
+ * resolution, which wakes up once per resolution and promotes the tasks due
+ * within two resolutions to the fine engine, with their exact remaining
+ * delay. Hence the fine engine only holds the tasks due soon, while the
+ * long-interval majority sits in the buckets until shortly before their
+ * deadline.
+ *
+ * Fixed-rate tasks with a period beyond the boundary are run as a chain of
+ * one-shots, each run filing the next one into the coarse tier. The deadlines
+ * stay those of the fixed rate.
+ *
+ * The monitor of the engine only guards the coarse tier, hence it is only
+ * taken to file, promote or unfile a task. The cancelled state is kept per
+ * task, so running and cancelling a task that is not in the coarse tier does
+ * not contend for it.
+ *
+ * @author reto
+ */
+public class TieredSchedulerEngine implements SchedulerEngine {
+
+    private final SchedulerEngine engine;
+    private final TimerClock clock;
+    private final long boundaryNanos;
+    private final long resolutionNanos;
+    /**
+     * Coarse tasks by the slot (deadline / resolution) they are due in
+     */
+    private final TreeMap<Long, List<TieredTask>> buckets;
+    private final ScheduledTask coarseTick;
+    private final LongAdder promotions;
+    private final LongAdder wakeups;
+    private int coarseSize;
+
+    /**
+     *
+     * @param engine the fine engine
+     * @param boundary tasks with a delay (or period) from the boundary on are
+     * kept in the coarse tier. It has to be at least twice the resolution.
+     * @param resolution period the coarse tier wakes up
+     * @param unit unit of the boundary and the resolution
+     */
+    public TieredSchedulerEngine(SchedulerEngine engine, long boundary, long resolution, TimeUnit unit) {
+        if (resolution <= 0 || boundary < 2 * resolution) {
+            throw new IllegalArgumentException("boundary must be at least twice the positive resolution: " + boundary + " " + resolution);
+        }
+        this.engine = engine;
+        this.clock = engine.getClock();
+        this.boundaryNanos = unit.toNanos(boundary);
+        this.resolutionNanos = unit.toNanos(resolution);
+        this.buckets = new TreeMap<>();
+        this.promotions = new LongAdder();
+        this.wakeups = new LongAdder();
+        this.coarseTick = engine.scheduleAtFixedRate(this::promote, resolution, resolution, unit);
+    }
+
+    public SchedulerEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     *
+     * @return number of tasks waiting in the coarse tier
+     */
+    public synchronized int getCoarseSize() {
+        return coarseSize;
+    }
+
+    /**
+     *
+     * @return number of tasks promoted from the coarse to the fine tier
+     */
+    public long getPromotions() {
+        return promotions.sum();
+    }
+
+    /**
+     *
+     * @return number of wakeups of the coarse tier
+     */
+    public long getWakeups() {
+        return wakeups.sum();
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        long delayNanos = unit.toNanos(Math.max(0, delay));
+        if (delayNanos < boundaryNanos) {
+            return engine.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        TieredTask tieredTask = new TieredTask(task, clock.nanoTime() + delayNanos, 0);
+        file(tieredTask);
+        return tieredTask;
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        long delayNanos = unit.toNanos(Math.max(0, initialDelay));
+        long periodNanos = unit.toNanos(period);
+        if (delayNanos < boundaryNanos && periodNanos < boundaryNanos) {
+            return engine.scheduleAtFixedRate(task, delayNanos, periodNanos, TimeUnit.NANOSECONDS);
+        }
+        TieredTask tieredTask = new TieredTask(task, clock.nanoTime() + delayNanos, periodNanos);
+        file(tieredTask);
+        return tieredTask;
+    }
+
+    @Override
+    public void shutdown() {
+        coarseTick.cancel();
+        synchronized (this) {
+            for (List<TieredTask> bucket : buckets.values()) {
+                for (TieredTask task : bucket) {
+                    task.index = -1;
+                }
+            }
+            buckets.clear();
+            coarseSize = 0;
+        }
+        engine.shutdown();
+    }
+
+    @Override
+    public boolean isPrecise() {
+        return engine.isPrecise();
+    }
+
+    @Override
+    public TimerClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Files the task into the coarse tier, or promotes it right away if it is
+     * due within two resolutions.
+     */
+    private void file(TieredTask task) {
+        synchronized (this) {
+            if (task.isCancelled()) {
+                return;
+            }
+            if (task.deadline - clock.nanoTime() >= 2 * resolutionNanos) {
+                task.slot = Math.floorDiv(task.deadline, resolutionNanos);
+                List<TieredTask> bucket = buckets.computeIfAbsent(task.slot, (slot) -> new ArrayList<>());
+                task.index = bucket.size();
+                bucket.add(task);
+                coarseSize++;
+                return;
+            }
+        }
+        task.promote();
+    }
+
+    /**
+     * Promotes all tasks due within two resolutions to the fine engine.
+     */
+    private void promote() {
+        wakeups.increment();
+        List<TieredTask> due = new ArrayList<>();
+        synchronized (this) {
+            long lastSlot = Math.floorDiv(clock.nanoTime() + 2 * resolutionNanos, resolutionNanos);
+            Iterator<Map.Entry<Long, List<TieredTask>>> iterator = buckets.headMap(lastSlot, true).entrySet().iterator();
+            while (iterator.hasNext()) {
+                List<TieredTask> bucket = iterator.next().getValue();
+                coarseSize -= bucket.size();
+                for (TieredTask task : bucket) {
+                    task.index = -1;
+                }
+                due.addAll(bucket);
+                iterator.remove();
+            }
+        }
+        for (TieredTask task : due) {
+            task.promote();
+        }
+    }
+
+    private class TieredTask implements ScheduledTask, Runnable {
+
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private volatile ScheduledTask fineTask;
+        private final AtomicBoolean isCancelled;
+        /**
+         * Position within the coarse tier, -1 if not in there. Written while
+         * holding the engine, read without it only to tell whether a cancel
+         * has to unfile the task.
+         */
+        private long slot;
+        private volatile int index = -1;
+
+        TieredTask(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+            this.isCancelled = new AtomicBoolean();
+        }
+
+        /**
+         * Hands the task over to the fine engine. Short periods stay there,
+         * long periods return to the coarse tier after each run.
+         */
+        void promote() {
+            if (isCancelled()) {
+                return;
+            }
+            promotions.increment();
+            long delay = Math.max(0, deadline - clock.nanoTime());
+            ScheduledTask promoted;
+            if (period > 0 && period < boundaryNanos) {
+                promoted = engine.scheduleAtFixedRate(task, delay, period, TimeUnit.NANOSECONDS);
+            } else {
+                promoted = engine.schedule(this, delay, TimeUnit.NANOSECONDS);
+            }
+            fineTask = promoted;
+            //A cancel that has missed the fine task is caught up on here
+            if (isCancelled()) {
+                promoted.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                return;
+            }
+            task.run();
+            if (period == 0) {
+                return;
+            }
+            fineTask = null;
+            deadline += period;
+            file(this);
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!isCancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledTask promoted = fineTask;
+            if (promoted != null) {
+                promoted.cancel();
+            }
+            if (index >= 0) {
+                synchronized (TieredSchedulerEngine.this) {
+                    if (index >= 0) {
+                        removeFromBucket();
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Swaps the last task of the bucket into the place of this one, so a
+         * cancel does not shift the bucket.
+         */
+        private void removeFromBucket() {
+            List<TieredTask> bucket = buckets.get(slot);
+            TieredTask last = bucket.remove(bucket.size() - 1);
+            if (last != this) {
+                bucket.set(index, last);
+                last.index = index;
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove(slot);
+            }
+            index = -1;
+            coarseSize--;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled.get();
+        }
+    }
+}
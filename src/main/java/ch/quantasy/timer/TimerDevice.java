@@ -41,15 +41,23 @@
  */
 package ch.quantasy.timer;
 
+import java.io.IOException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.SortedMap;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.TreeMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,18 +67,360 @@ import java.util.logging.Logger;
  */
 public class TimerDevice {
 
-    private final SortedMap<String, Ticker> tickerMap;
+    /**
+     * Default period in ms the expired tickers are reaped.
+     */
+    public static final long DEFAULT_EXPIRY_REAPER_PERIOD = 1000;
+
+    /**
+     * Maximum amount of expired tickers removed (and notified) at once.
+     */
+    public static final int EXPIRY_BATCH_SIZE = 1000;
+
+    /**
+     * What to do with ticks that lag behind, i.e. because the callback (or the
+     * publishing behind it) is too slow and the ticks pile up.
+     */
+    public enum OverloadPolicy {
+        /**
+         * Every tick is delivered, possibly in bursts.
+         */
+        DELIVER_ALL,
+        /**
+         * Ticks lagging more than the maximum lag are dropped, so the ticker
+         * resyncs to its phase.
+         */
+        SKIP,
+        /**
+         * Ticks superseded by a newer one (already due or already queued at
+         * the dispatcher) are collapsed into the newer tick.
+         */
+        COLLAPSE
+    }
+
+    /**
+     * Registry for the id lookup. The sortedTickerMap is only ever updated
+     * from within the atomic per-id operations of this map, so both stay
+     * consistent without any device-wide lock.
+     */
+    private final ConcurrentMap<String, Ticker> tickerMap;
+    private final ConcurrentSkipListMap<String, Ticker> sortedTickerMap;
     private final TimerDeviceCallback callback;
-    private final ScheduledExecutorService timerService;
+    private final SchedulerEngine timerService;
+    private final TimerClock clock;
+    private final TimerDeviceStatistics statistics;
+    private volatile TickerJournal journal;
+    private volatile TickDispatcher dispatcher;
+    private volatile OverloadPolicy overloadPolicy = OverloadPolicy.DELIVER_ALL;
+    private volatile long maxLagNanos;
+    private ScheduledExecutorService compactionService;
+    /**
+     * Tickers with a last tick, ordered by the absolute time (ms since Unix
+     * epoch) they expire. Each ticker keeps its own entry, which is replaced
+     * within the ticker's monitor.
+     */
+    private final ConcurrentSkipListSet<Expiry> expiryIndex;
+    private final AtomicLong expirySequence;
+    private SchedulerEngine.ScheduledTask expiryReaper;
 
     public TimerDevice(TimerDeviceCallback callback) {
+        this(callback, new ExecutorSchedulerEngine());
+    }
+
+    /**
+     *
+     * @param callback
+     * @param schedulerEngine engine driving the tickers, i.e.
+     * {@link ExecutorSchedulerEngine} or {@link TimingWheelSchedulerEngine},
+     * possibly wrapped by a {@link CoalescingSchedulerEngine}. Coalescing is
+     * opt-in, as a slow callback delays all tickers of its group.
+     */
+    public TimerDevice(TimerDeviceCallback callback, SchedulerEngine schedulerEngine) {
+        this(callback, schedulerEngine, new TimerDeviceStatistics());
+    }
+
+    /**
+     *
+     * @param callback
+     * @param schedulerEngine
+     * @param statistics statistics to be recorded to, which may be shared
+     * with other devices (see {@link ShardedTimerDevice})
+     */
+    public TimerDevice(TimerDeviceCallback callback, SchedulerEngine schedulerEngine, TimerDeviceStatistics statistics) {
         this.callback = callback;
-        tickerMap = new TreeMap<>();
-        this.timerService = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), (Runnable r) -> {
+        tickerMap = new ConcurrentHashMap<>();
+        sortedTickerMap = new ConcurrentSkipListMap<>();
+        this.timerService = schedulerEngine;
+        this.clock = schedulerEngine.getClock();
+        this.statistics = statistics;
+        this.expiryIndex = new ConcurrentSkipListSet<>();
+        this.expirySequence = new AtomicLong();
+        setExpiryReaperPeriod(DEFAULT_EXPIRY_REAPER_PERIOD);
+    }
+
+    /**
+     * Tickers whose last tick has passed are removed by a reaper running
+     * periodically on the scheduler engine, instead of waiting for their next
+     * (possibly far) tick. The removals are notified in batches via
+     * {@link TimerDeviceCallback#tickerConfigurationsChanged(java.util.List, java.util.List)}.
+     *
+     * @param periodMillis period in ms, 0 in order to stop reaping
+     */
+    public synchronized void setExpiryReaperPeriod(long periodMillis) {
+        if (expiryReaper != null) {
+            expiryReaper.cancel();
+            expiryReaper = null;
+        }
+        if (periodMillis > 0) {
+            expiryReaper = timerService.scheduleAtFixedRate(this::reapExpired, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes all tickers whose last tick has passed. A ticker whose final
+     * tick is still due (i.e. as the ticks are lagging) is left to deliver
+     * it, after which it removes itself.
+     *
+     * @return number of removed tickers
+     */
+    public int reapExpired() {
+        long now = clock.currentTimeMillis();
+        int count = 0;
+        List<DeviceTickerConfiguration> removed = new ArrayList<>();
+        List<Expiry> postponed = null;
+        while (!expiryIndex.isEmpty()) {
+            Expiry expiry;
+            try {
+                expiry = expiryIndex.first();
+            } catch (NoSuchElementException ex) {
+                break;
+            }
+            if (expiry.deadline > now) {
+                break;
+            }
+            if (!expiryIndex.remove(expiry)) {
+                continue;
+            }
+            Ticker ticker = tickerMap.get(expiry.id);
+            if (ticker != null && ticker.isTickDue(expiry)) {
+                if (postponed == null) {
+                    postponed = new ArrayList<>();
+                }
+                postponed.add(expiry);
+                continue;
+            }
+            if (ticker != null && ticker.expire(expiry)) {
+                removed.add(ticker.configuration);
+                count++;
+                if (removed.size() >= EXPIRY_BATCH_SIZE) {
+                    callback.tickerConfigurationsChanged(Collections.emptyList(), removed);
+                    removed = new ArrayList<>();
+                }
+            }
+        }
+        if (!removed.isEmpty()) {
+            callback.tickerConfigurationsChanged(Collections.emptyList(), removed);
+        }
+        if (postponed != null) {
+            expiryIndex.addAll(postponed);
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @return number of tickers waiting for their expiry
+     */
+    public int getExpiryCount() {
+        return expiryIndex.size();
+    }
+
+    public SchedulerEngine getSchedulerEngine() {
+        return timerService;
+    }
+
+    public TimerDeviceStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     *
+     * @return number of active tickers
+     */
+    public int getTickerCount() {
+        return tickerMap.size();
+    }
+
+    public boolean hasTicker(String id) {
+        return tickerMap.containsKey(id);
+    }
+
+    /**
+     *
+     * @param id
+     * @return copy of the configuration the ticker runs, null if the ticker is
+     * unknown
+     */
+    public DeviceTickerConfiguration getTickerConfiguration(String id) {
+        Ticker ticker = tickerMap.get(id);
+        return ticker == null ? null : ticker.getConfiguration();
+    }
+
+    /**
+     *
+     * @param id
+     * @return lateness statistics of the ticker, null if the ticker is unknown
+     * or the engine does not measure it (see {@link PrecisionSchedulerEngine})
+     */
+    public JitterStatistics getJitterStatistics(String id) {
+        Ticker ticker = tickerMap.get(id);
+        if (ticker == null) {
+            return null;
+        }
+        return ticker.getJitterStatistics();
+    }
+
+    /**
+     * Hands the callbacks of the scheduler threads over to the dispatcher, so
+     * a slow callback does not delay the other tickers.
+     *
+     * @param dispatcher null in order to run the callbacks on the scheduler
+     * threads
+     */
+    public void setDispatcher(TickDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public TickDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Sheds ticks lagging behind, measured at the scheduler and (if set) again
+     * at the dispatcher. The number of shed ticks is reported with the next
+     * delivered tick via
+     * {@link TimerDeviceCallback#onTick(java.lang.String, long, long)}. The
+     * final tick of a ticker is never shed.
+     *
+     * @param overloadPolicy
+     * @param maxLagMillis lag in ms beyond which a tick is dropped by
+     * {@link OverloadPolicy#SKIP}
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy, long maxLagMillis) {
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * Delivers a control callback, which the dispatcher never drops.
+     */
+    private void deliver(String id, Runnable delivery) {
+        TickDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher == null) {
+            delivery.run();
+        } else {
+            currentDispatcher.dispatchControl(id, delivery);
+        }
+    }
+
+    /**
+     * Restores the tickers found in the journal (keeping their phase given by
+     * epoch/first/interval) and journals all further updates and removals.
+     * Tickers configured before (i.e. by intents arriving while the journal
+     * is loaded) are kept and journaled by an immediate compaction.
+     *
+     * @param journal
+     * @param compactionPeriodMillis period in ms the journal is compacted
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized void setJournal(TickerJournal journal, long compactionPeriodMillis) throws IOException {
+        if (this.journal != null) {
+            throw new IllegalStateException("Journal already set");
+        }
+        for (DeviceTickerConfiguration configuration : journal.load()) {
+            restoreTickerConfiguration(configuration);
+        }
+        attachJournal(journal);
+        journal.compact(this::getConfigurations);
+        compactionService = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
             Thread t = Executors.defaultThreadFactory().newThread(r);
             t.setDaemon(true);
             return t;
         });
+        compactionService.scheduleWithFixedDelay(() -> {
+            try {
+                journal.compact(this::getConfigurations);
+                journal.force();
+            } catch (IOException ex) {
+                Logger.getLogger(TimerDevice.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }, compactionPeriodMillis, compactionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Restores a journaled ticker in phase with its epoch/first/interval.
+     *
+     * @param configuration
+     */
+    void restoreTickerConfiguration(DeviceTickerConfiguration configuration) {
+        if (configuration.getId() == null || isOver(configuration, clock.currentTimeMillis())) {
+            return;
+        }
+        while (!getOrCreateTicker(configuration.getId()).restoreConfig(configuration)) {
+        }
+    }
+
+    /**
+     * {@link DeviceTickerConfiguration#isFinished(long)} holds for every
+     * one-shot, even if its tick is still pending, hence it does not tell
+     * whether a restored ticker is still of use.
+     *
+     * @param configuration
+     * @param nowMillis
+     * @return true if the last tick, or the tick of a one-shot, is in the past
+     */
+    private static boolean isOver(DeviceTickerConfiguration configuration, long nowMillis) {
+        Long lastFromNow = configuration.getLastInMillisFromNow(nowMillis);
+        if (lastFromNow != null && lastFromNow < 0) {
+            return true;
+        }
+        if (configuration.getCron() != null || (configuration.getInterval() != null && configuration.getInterval() > 0)) {
+            return false;
+        }
+        Long firstFromNow = configuration.getFirstInMillisFromNow(nowMillis);
+        return (firstFromNow == null ? configuration.getEpochDeltaMillis(nowMillis) : firstFromNow) < 0;
+    }
+
+    /**
+     * Journals all further updates and removals, without loading or compacting
+     * the journal, which is left to the owner of the journal.
+     *
+     * @param journal
+     */
+    synchronized void attachJournal(TickerJournal journal) {
+        if (this.journal != null) {
+            throw new IllegalStateException("Journal already set");
+        }
+        this.journal = journal;
+    }
+
+    /**
+     *
+     * @return copies of the configurations of all tickers
+     */
+    public List<DeviceTickerConfiguration> getConfigurations() {
+        List<DeviceTickerConfiguration> configurations = new ArrayList<>(tickerMap.size());
+        for (Ticker ticker : tickerMap.values()) {
+            DeviceTickerConfiguration configuration = ticker.getConfiguration();
+            if (configuration != null) {
+                configurations.add(configuration);
+            }
+        }
+        return configurations;
     }
 
     public void cancel(DeviceTickerCancel cancel) {
@@ -83,30 +433,189 @@ public class TimerDevice {
         }
     }
 
+    /**
+     * Applies all configurations and then all cancels of the bulk in one pass.
+     * Instead of one notification per ticker, the callback is notified once
+     * via {@link TimerDeviceCallback#tickerConfigurationsChanged(java.util.List, java.util.List)}.
+     *
+     * @param bulk
+     */
+    public void applyBulk(DeviceTickerBulk bulk) {
+        if (bulk == null) {
+            return;
+        }
+        List<DeviceTickerConfiguration> updated = new ArrayList<>();
+        List<DeviceTickerConfiguration> removed = new ArrayList<>();
+        if (bulk.getConfigurations() != null) {
+            for (DeviceTickerConfiguration configuration : bulk.getConfigurations()) {
+                setTickerConfiguration(configuration, updated);
+            }
+        }
+        if (bulk.getCancels() != null) {
+            for (DeviceTickerCancel cancel : bulk.getCancels()) {
+                cancel(cancel, removed);
+            }
+        }
+        if (!updated.isEmpty() || !removed.isEmpty()) {
+            callback.tickerConfigurationsChanged(updated, removed);
+        }
+    }
+
+    /**
+     * Bulk variant of {@link #setTickerConfiguration(ch.quantasy.timer.DeviceTickerConfiguration)},
+     * which does not notify the callback.
+     *
+     * @param updated collects the configuration after the update
+     */
+    void setTickerConfiguration(DeviceTickerConfiguration configuration, List<DeviceTickerConfiguration> updated) {
+        if (configuration == null || configuration.getId() == null) {
+            return;
+        }
+        validate(configuration);
+        Ticker ticker;
+        do {
+            ticker = getOrCreateTicker(configuration.getId());
+        } while (!ticker.updateConfig(configuration, false));
+        DeviceTickerConfiguration currentConfiguration = ticker.getConfiguration();
+        if (currentConfiguration != null) {
+            updated.add(currentConfiguration);
+        }
+    }
+
+    /**
+     * Bulk variant of {@link #cancel(ch.quantasy.timer.DeviceTickerCancel)},
+     * which does not notify the callback.
+     *
+     * @param removed collects the configuration of the removed ticker
+     */
+    void cancel(DeviceTickerCancel cancel, List<DeviceTickerConfiguration> removed) {
+        if (cancel == null || cancel.getId() == null) {
+            return;
+        }
+        Ticker ticker = tickerMap.get(cancel.getId());
+        if (ticker != null && ticker.cancel(false)) {
+            removed.add(ticker.configuration);
+        }
+    }
+
     public void setTickerConfiguration(DeviceTickerConfiguration configuration) {
         if (configuration == null) {
             return;
         }
-        Logger.getLogger(TimerDevice.class.getName()).log(Level.INFO, null, configuration);
-        Ticker ticker = null;
-        synchronized (this) {
-            ticker = tickerMap.get(configuration.getId());
-            if (ticker == null) {
-                ticker = new Ticker(configuration.getId());
-                tickerMap.put(configuration.getId(), ticker);
-            }
+        Logger.getLogger(TimerDevice.class.getName()).log(Level.FINE, "{0}", configuration);
+        if (configuration.getId() == null) {
+            return;
+        }
+        validate(configuration);
+        //A ticker removed concurrently refuses the update, hence retry with a fresh one.
+        while (!getOrCreateTicker(configuration.getId()).updateConfig(configuration, true)) {
+        }
+    }
+
+    /**
+     * Rejects a malformed cron expression or zone before it reaches a ticker.
+     *
+     * @throws IllegalArgumentException if the cron expression is malformed
+     * @throws java.time.DateTimeException if the zone is unknown
+     */
+    private static void validate(DeviceTickerConfiguration configuration) {
+        if (configuration.getCron() != null && !configuration.getCron().isEmpty()) {
+            CronSchedule.compile(configuration.getCron());
+        }
+        if (configuration.getZone() != null) {
+            ZoneId.of(configuration.getZone());
         }
-        ticker.updateConfig(configuration);
+    }
 
+    private static ZoneId toZoneId(String zone) {
+        return zone == null ? ZoneOffset.UTC : ZoneId.of(zone);
     }
 
+    private Ticker getOrCreateTicker(String id) {
+        Ticker ticker = tickerMap.get(id);
+        if (ticker != null) {
+            return ticker;
+        }
+        return tickerMap.computeIfAbsent(id, (key) -> {
+            Ticker newTicker = new Ticker(key);
+            sortedTickerMap.put(key, newTicker);
+            return newTicker;
+        });
+    }
+
+    /**
+     *
+     * @return weakly consistent, sorted and unmodifiable view of the tickers.
+     * It is not copied and does not block any updates.
+     */
     public SortedMap<String, Ticker> getTickerMap() {
-        return new TreeMap(tickerMap);
+        return Collections.unmodifiableSortedMap(sortedTickerMap);
+    }
+
+    public void removeTicker(Ticker ticker) {
+        removeTicker(ticker, true);
+    }
+
+    /**
+     *
+     * @return false if the ticker had already been removed
+     */
+    private boolean removeTicker(Ticker ticker, boolean isNotifying) {
+        synchronized (ticker) {
+            if (ticker.isRemoved) {
+                return false;
+            }
+            ticker.isRemoved = true;
+            ticker.updateExpiry(null);
+        }
+        tickerMap.computeIfPresent(ticker.id, (key, value) -> {
+            if (value != ticker) {
+                return value;
+            }
+            sortedTickerMap.remove(key, value);
+            //Journaled within the atomic removal, so it precedes any re-creation
+            TickerJournal currentJournal = journal;
+            if (currentJournal != null) {
+                try {
+                    currentJournal.removed(key);
+                } catch (IOException ex) {
+                    Logger.getLogger(TimerDevice.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+            return null;
+        });
+        statistics.removed();
+        if (isNotifying) {
+            deliver(ticker.id, () -> callback.tickerConfigurationRemoved(ticker.configuration));
+        }
+        return true;
     }
 
-    public synchronized void removeTicker(Ticker ticker) {
-        tickerMap.remove(ticker.id);
-        callback.tickerConfigurationRemoved(ticker.configuration);
+    private static final class Expiry implements Comparable<Expiry> {
+
+        private final long deadline;
+        private final String id;
+        private final long sequence;
+
+        Expiry(long deadline, String id, long sequence) {
+            this.deadline = deadline;
+            this.id = id;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Expiry o) {
+            int comparison = Long.compare(deadline, o.deadline);
+            if (comparison != 0) {
+                return comparison;
+            }
+            comparison = id.compareTo(o.id);
+            if (comparison != 0) {
+                return comparison;
+            }
+            //Distinct entries of a removed and a re-created ticker may coexist
+            return Long.compare(sequence, o.sequence);
+        }
     }
 
     class Ticker {
@@ -114,34 +623,186 @@ public class TimerDevice {
         private DeviceTickerConfiguration configuration;
         private String id;
         private Task task;
+        private boolean isRemoved;
+        private Expiry expiry;
+        /**
+         * Lateness of the runs of the futures replaced so far, as every
+         * reschedule starts a fresh future.
+         */
+        private final JitterStatistics retiredJitterStatistics = new JitterStatistics();
 
         public Ticker(String id) {
             this.id = id;
         }
 
-        public synchronized void cancel() {
-            this.task.taskFuture.cancel(true);
-            removeTicker(Ticker.this);
+        public synchronized DeviceTickerConfiguration getConfiguration() {
+            if (configuration == null || isRemoved) {
+                return null;
+            }
+            return new DeviceTickerConfiguration(configuration);
+        }
+
+        /**
+         * Takes over a complete configuration from the journal and schedules
+         * the ticks in phase with its epoch/first/interval.
+         *
+         * @param configuration
+         * @return false if this ticker has already been removed
+         */
+        public synchronized boolean restoreConfig(DeviceTickerConfiguration configuration) {
+            if (isRemoved) {
+                return false;
+            }
+            if (this.configuration != null) {
+                //Configured meanwhile (i.e. by an intent), which is newer than the journal
+                return true;
+            }
+            this.configuration = new DeviceTickerConfiguration(configuration);
+            task = new Task(task, true, true);
+            updateExpiry(this.configuration);
+            return true;
+        }
+
+        /**
+         * Replaces the entry of this ticker within the expiry index.
+         *
+         * @param configuration null in order to only remove the entry
+         */
+        private void updateExpiry(DeviceTickerConfiguration configuration) {
+            Expiry newExpiry = null;
+            if (configuration != null && configuration.getLast() != null) {
+                Long epoch = configuration.getEpoch();
+                long deadline = (epoch == null ? clock.currentTimeMillis() : epoch) + configuration.getLast();
+                if (expiry != null && expiry.deadline == deadline) {
+                    return;
+                }
+                newExpiry = new Expiry(deadline, id, expirySequence.incrementAndGet());
+            }
+            if (expiry != null) {
+                expiryIndex.remove(expiry);
+            }
+            expiry = newExpiry;
+            if (expiry != null) {
+                expiryIndex.add(expiry);
+            }
+        }
+
+        /**
+         *
+         * @param expiry entry taken from the expiry index
+         * @return true if a tick at or before the deadline of the entry is
+         * still to be delivered
+         */
+        synchronized boolean isTickDue(Expiry expiry) {
+            if (this.expiry != expiry || isRemoved || task == null || task.taskFuture == null || task.taskFuture.isCancelled()) {
+                return false;
+            }
+            long nextTick = task.getIdealTickMillis(clock.currentTimeMillis());
+            return nextTick >= 0 && nextTick <= expiry.deadline;
+        }
+
+        /**
+         * Removes this ticker without notification, as the reaper notifies
+         * the removals in batches.
+         *
+         * @param expiry entry taken from the expiry index
+         * @return false if the entry is outdated or the ticker has already
+         * been removed
+         */
+        synchronized boolean expire(Expiry expiry) {
+            if (this.expiry != expiry || isRemoved) {
+                return false;
+            }
+            this.expiry = null;
+            if (this.task != null) {
+                this.task.taskFuture.cancel();
+            }
+            if (!removeTicker(Ticker.this, false)) {
+                return false;
+            }
+            statistics.expired();
+            return true;
+        }
+
+        public synchronized JitterStatistics getJitterStatistics() {
+            if (task == null || task.taskFuture == null) {
+                return null;
+            }
+            JitterStatistics current = task.taskFuture.getJitterStatistics();
+            if (current == null) {
+                return null;
+            }
+            JitterStatistics jitterStatistics = new JitterStatistics(retiredJitterStatistics);
+            jitterStatistics.merge(current);
+            return jitterStatistics;
+        }
+
+        /**
+         * Cancels a future which is being replaced and keeps its lateness.
+         *
+         * @param future
+         */
+        private void retire(SchedulerEngine.ScheduledTask future) {
+            future.cancel();
+            JitterStatistics jitterStatistics = future.getJitterStatistics();
+            if (jitterStatistics != null) {
+                retiredJitterStatistics.merge(jitterStatistics);
+            }
+        }
+
+        public void cancel() {
+            cancel(true);
         }
 
-        public synchronized void updateConfig(DeviceTickerConfiguration configuration) {
+        /**
+         *
+         * @param isNotifying false in order to suppress the notification of the
+         * removal
+         * @return false if the ticker had already been removed
+         */
+        public synchronized boolean cancel(boolean isNotifying) {
+            statistics.cancelled();
+            if (this.task != null) {
+                this.task.taskFuture.cancel();
+            }
+            return removeTicker(Ticker.this, isNotifying);
+        }
+
+        /**
+         *
+         * @param configuration
+         * @param isNotifying false in order to suppress the notification of the
+         * update
+         * @return false if this ticker has already been removed and hence can
+         * not be updated anymore
+         */
+        public synchronized boolean updateConfig(DeviceTickerConfiguration configuration, boolean isNotifying) {
+            if (isRemoved) {
+                return false;
+            }
             if (configuration == null) {
-                return;
+                return true;
             }
             if (!this.id.equals(configuration.getId())) {
-                return;
+                return true;
             }
             if (this.configuration == null) {
                 this.configuration = new DeviceTickerConfiguration(configuration);
                 if (this.configuration.getEpoch() == null) {
-                    this.configuration.setEpoch(System.currentTimeMillis());
+                    this.configuration.setEpoch(clock.currentTimeMillis());
                 }
                 if (this.configuration.getFirst() == null) {
                     this.configuration.setFirst(0);
                 }
             } else if (this.configuration.equals(configuration)) {
-                return;
+                return true;
             } else {
+                Long oldEpoch = this.configuration.getEpoch();
+                Integer oldFirst = this.configuration.getFirst();
+                Integer oldInterval = this.configuration.getInterval();
+                Integer oldLast = this.configuration.getLast();
+                String oldCron = this.configuration.getCron();
+                String oldZone = this.configuration.getZone();
                 if (configuration.getEpoch() != null) {
                     this.configuration.setEpoch(configuration.getEpoch());
                 }
@@ -154,71 +815,311 @@ public class TimerDevice {
                 if (configuration.getInterval() != null) {
                     this.configuration.setInterval(configuration.getInterval());
                 }
+                if (configuration.getCron() != null) {
+                    //An empty expression returns to fixed-rate ticks
+                    this.configuration.setCron(DeviceTickerConfiguration.toCron(configuration.getCron()));
+                }
+                if (configuration.getZone() != null) {
+                    this.configuration.setZone(configuration.getZone());
+                }
+                boolean isPhaseUnchanged = Objects.equals(oldEpoch, this.configuration.getEpoch()) && Objects.equals(oldFirst, this.configuration.getFirst())
+                        && Objects.equals(oldCron, this.configuration.getCron()) && Objects.equals(oldZone, this.configuration.getZone());
+                Integer interval = this.configuration.getInterval();
+                if (isPhaseUnchanged && Objects.equals(oldInterval, interval)) {
+                    if (Objects.equals(oldLast, this.configuration.getLast())) {
+                        statistics.unchanged();
+                        return true;
+                    }
+                    //Only the deadline moved, which the task reads on each tick
+                    statistics.deadlineUpdated();
+                    updateInPlace(isNotifying);
+                    return true;
+                }
+                if (isPhaseUnchanged && oldCron == null && oldInterval != null && oldInterval > 0 && interval != null && interval > 0) {
+                    statistics.retimed();
+                    task.retime();
+                    updateInPlace(isNotifying);
+                    return true;
+                }
+            }
+            task = new Task(task, false, isNotifying);
+            updateExpiry(this.configuration);
+            journalConfiguration();
+            return true;
+        }
+
+        /**
+         * Completes an update which kept the task.
+         */
+        private void updateInPlace(boolean isNotifying) {
+            if (isNotifying) {
+                callback.tickerConfigurationUpdated(configuration);
+            }
+            updateExpiry(configuration);
+            journalConfiguration();
+        }
+
+        private void journalConfiguration() {
+            TickerJournal currentJournal = journal;
+            if (currentJournal != null) {
+                try {
+                    currentJournal.configured(configuration);
+                } catch (IOException ex) {
+                    Logger.getLogger(TimerDevice.class.getName()).log(Level.SEVERE, null, ex);
+                }
             }
-            task = new Task(task);
         }
 
         class Task implements Runnable {
 
-            private Future taskFuture;
+            private SchedulerEngine.ScheduledTask taskFuture;
             private boolean isFirstReached = false;
             private long latestTick = 0;
+            private long idealTickNanos;
+            private long intervalNanos;
+            private CronSchedule cron;
+            private ZoneId zone;
+            /**
+             * Next fire time (ms since Unix epoch) of a cron ticker, -1 if it
+             * never fires.
+             */
+            private long nextFire;
+            /**
+             * Ticks shed since the latest delivered tick.
+             */
+            private final AtomicLong missedTicks = new AtomicLong();
+            /**
+             * Sequence of the latest tick handed over to the dispatcher.
+             */
+            private final AtomicLong dispatchSequence = new AtomicLong();
 
-            public Task(Task oldTask) {
+            /**
+             *
+             * @param oldTask task to be replaced
+             * @param isAlignedToEpoch true in order to continue in phase with
+             * epoch/first/interval instead of in phase with the latest tick
+             * @param isNotifying false in order to suppress the notification of
+             * the update
+             */
+            public Task(Task oldTask, boolean isAlignedToEpoch, boolean isNotifying) {
+                long now = clock.nanoTime();
+                long wallNow = clock.currentTimeMillis();
+                statistics.scheduled(oldTask != null);
                 if (oldTask != null && oldTask.taskFuture != null) {
-                    oldTask.taskFuture.cancel(false);
+                    retire(oldTask.taskFuture);
                     this.latestTick = oldTask.latestTick;
+                    this.missedTicks.set(oldTask.missedTicks.get());
+                }
+                if (isNotifying) {
+                    callback.tickerConfigurationUpdated(configuration);
+                }
+                if (configuration.getCron() != null) {
+                    cron = CronSchedule.compile(configuration.getCron());
+                    zone = toZoneId(configuration.getZone());
+                    Long firstFromNow = configuration.getFirstInMillisFromNow(wallNow);
+                    nextFire = cron.next(wallNow + Math.max(0, firstFromNow == null ? 0 : firstFromNow) - 1, zone);
+                    isFirstReached = configuration.isFirstReached(wallNow);
+                    long delay = nextFire < 0 ? 0 : Math.max(0, nextFire - wallNow);
+                    taskFuture = timerService.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    idealTickNanos = now + TimeUnit.MILLISECONDS.toNanos(delay);
+                    return;
                 }
-                callback.tickerConfigurationUpdated(configuration);                
                 Integer interval = configuration.getInterval();
-                Long start = configuration.getFirstInMillisFromNow();
-                System.out.println("Start in: "+start);
+                Long start = configuration.getFirstInMillisFromNow(wallNow);
                 if (start == null || start <= 0) {                    
                     if (interval != null && interval > 0) {
-                        start = Math.max(0, interval - (System.currentTimeMillis() - latestTick));
-                        isFirstReached = configuration.isFirstReached();
+                        if (isAlignedToEpoch || timerService.isPrecise()) {
+                            //Next tick in phase with epoch/first/interval, unless it has just been delivered
+                            start = Math.floorMod(start == null ? 0 : start, (long) interval);
+                            if (start == 0 && latestTick == wallNow) {
+                                start = (long) interval;
+                            }
+                        } else {
+                            start = Math.max(0, interval - (wallNow - latestTick));
+                        }
+                        isFirstReached = configuration.isFirstReached(wallNow);
                         taskFuture = timerService.scheduleAtFixedRate(this, start, interval, TimeUnit.MILLISECONDS);
                     } else {
-                        isFirstReached = configuration.isFirstReached();
+                        isFirstReached = configuration.isFirstReached(wallNow);
                         taskFuture = timerService.schedule(this, 0, TimeUnit.MILLISECONDS);
                     }
                 } else {
                     if (interval != null && interval > 0) {
-                        isFirstReached = configuration.isFirstReached();
+                        isFirstReached = configuration.isFirstReached(wallNow);
                         //Logger.getLogger(TimerDevice.class.getName()).log(Level.INFO, System.currentTimeMillis() + ": let us see: start:" + start + " interval: " + interval);
                         taskFuture = timerService.scheduleAtFixedRate(this, start, interval, TimeUnit.MILLISECONDS);
                     } else {
                         //Logger.getLogger(TimerDevice.class.getName()).log(Level.INFO, System.currentTimeMillis() + ": a one timer: " + configuration);
-                        isFirstReached = configuration.isFirstReached();
+                        isFirstReached = configuration.isFirstReached(wallNow);
                         taskFuture = timerService.schedule(this, start, TimeUnit.MILLISECONDS);
                     }
                 }
+                idealTickNanos = now + TimeUnit.MILLISECONDS.toNanos(start == null || start < 0 ? 0 : start);
+                intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval == null || interval < 0 ? 0 : interval);
+            }
+
+            /**
+             * Replaces the fixed-rate schedule by one with the new interval of
+             * the configuration, keeping this task with its state. The phase
+             * follows the same rules as for a new task.
+             */
+            void retime() {
+                long now = clock.nanoTime();
+                long wallNow = clock.currentTimeMillis();
+                retire(taskFuture);
+                int interval = configuration.getInterval();
+                Long start = configuration.getFirstInMillisFromNow(wallNow);
+                if (start == null || start <= 0) {
+                    if (timerService.isPrecise()) {
+                        start = Math.floorMod(start == null ? 0 : start, (long) interval);
+                        if (start == 0 && latestTick == wallNow) {
+                            start = (long) interval;
+                        }
+                    } else {
+                        start = Math.max(0, interval - (wallNow - latestTick));
+                    }
+                }
+                taskFuture = timerService.scheduleAtFixedRate(this, start, interval, TimeUnit.MILLISECONDS);
+                idealTickNanos = now + TimeUnit.MILLISECONDS.toNanos(start);
+                intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+            }
+
+            /**
+             *
+             * @param wallNow
+             * @return ms since Unix epoch the next tick is due, -1 if none
+             */
+            long getIdealTickMillis(long wallNow) {
+                if (cron != null) {
+                    return nextFire;
+                }
+                return wallNow - TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - idealTickNanos);
             }
 
             @Override
             public void run() {
-                if (taskFuture.isCancelled()) {
+                SchedulerEngine.ScheduledTask future;
+                synchronized (Ticker.this) {
+                    //The constructor hands over the future while holding the ticker
+                    future = taskFuture;
+                }
+                if (future.isCancelled()) {
                     return;
                 }
                 if (configuration == null) {
                     return;
                 }
+                long wallNow = clock.currentTimeMillis();
+                //A lagging tick is judged by the time it was due
+                Long lastFromNow = configuration.getLastInMillisFromNow(Math.min(wallNow, getIdealTickMillis(wallNow)));
+                if ((cron != null && nextFire < 0) || (lastFromNow != null && lastFromNow < 0)) {
+                    //Never tick beyond last, whether or not the reaper has already run
+                    finish(future);
+                    return;
+                }
                 //Logger.getLogger(TimerDevice.class.getName()).log(Level.INFO, System.currentTimeMillis() + ":" + configuration);
 
                 if (isFirstReached == false) {
                     isFirstReached = true;
-                    callback.tickerConfigurationUpdated(configuration);
+                    deliver(id, () -> callback.tickerConfigurationUpdated(configuration));
+                }
+                latestTick = wallNow;
+                long tickNanos = clock.nanoTime();
+                long idealNanos = idealTickNanos;
+                statistics.ticked(tickNanos - idealNanos);
+                idealTickNanos += intervalNanos;
+                long epochDelta = -configuration.getEpochDeltaMillis(latestTick);
+                boolean isFinal = configuration.isFinished(latestTick);
+                TickDispatcher currentDispatcher = dispatcher;
+                if (!isFinal && isOverloaded(tickNanos, idealNanos, 0)) {
+                    shed();
+                } else if (currentDispatcher == null) {
+                    tick(epochDelta);
+                } else if (isFinal) {
+                    //The final tick is never shed, not even by the dispatcher
+                    dispatchSequence.incrementAndGet();
+                    currentDispatcher.dispatchControl(id, () -> tick(epochDelta));
+                } else {
+                    long sequence = dispatchSequence.incrementAndGet();
+                    currentDispatcher.dispatch(id, () -> {
+                        if (isOverloaded(clock.nanoTime(), idealNanos, sequence)) {
+                            shed();
+                        } else {
+                            tick(epochDelta);
+                        }
+                    });
                 }
-                latestTick = System.currentTimeMillis();
-                callback.onTick(configuration.getId(), 0 - configuration.getEpochDelta());
                 //Logger.getLogger(TimerDevice.class.getName()).log(Level.INFO, System.currentTimeMillis() + ": " + latestTick);
-                if (configuration.isFinished()) {
-                    taskFuture.cancel(false);
-                    callback.tickerConfigurationUpdated(configuration);
-                    removeTicker(Ticker.this);
+                if (isFinal) {
+                    finish(future);
+                } else if (cron != null) {
+                    scheduleNextFire(future);
                 }
             }
 
+            private void finish(SchedulerEngine.ScheduledTask future) {
+                future.cancel();
+                deliver(id, () -> callback.tickerConfigurationUpdated(configuration));
+                removeTicker(Ticker.this);
+            }
+
+            /**
+             * Cron tickers are scheduled one fire at a time, the next fire
+             * being evaluated incrementally from the previous one.
+             */
+            private void scheduleNextFire(SchedulerEngine.ScheduledTask future) {
+                long next = cron.next(nextFire, zone);
+                Integer last = configuration.getLast();
+                if (next < 0 || (last != null && next > configuration.getEpoch() + last)) {
+                    finish(future);
+                    return;
+                }
+                synchronized (Ticker.this) {
+                    if (task != this || isRemoved) {
+                        return;
+                    }
+                    nextFire = next;
+                    long delay = Math.max(0, next - clock.currentTimeMillis());
+                    idealTickNanos = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                    retire(taskFuture);
+                    taskFuture = timerService.schedule(this, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            /**
+             *
+             * @param nowNanos
+             * @param idealNanos ideal time of the tick
+             * @param sequence dispatch sequence of the tick, 0 if not yet
+             * dispatched
+             * @return true if the tick is to be shed
+             */
+            private boolean isOverloaded(long nowNanos, long idealNanos, long sequence) {
+                switch (overloadPolicy) {
+                    case SKIP:
+                        return nowNanos - idealNanos > maxLagNanos;
+                    case COLLAPSE:
+                        if (sequence != 0) {
+                            return sequence != dispatchSequence.get();
+                        }
+                        //The next tick is already due
+                        return intervalNanos > 0 && nowNanos - idealNanos >= intervalNanos;
+                    default:
+                        return false;
+                }
+            }
+
+            private void shed() {
+                missedTicks.incrementAndGet();
+                statistics.shed();
+            }
+
+            private void tick(long epochDelta) {
+                long start = System.nanoTime();
+                callback.onTick(id, epochDelta, missedTicks.getAndSet(0));
+                statistics.called(System.nanoTime() - start);
+            }
+
         }
 
     }
@@ -41,6 +41,8 @@
  */
 package ch.quantasy.timer;
 
+import java.util.List;
+
 /**
  *
  * @author reto
@@ -59,10 +61,51 @@ public interface TimerDeviceCallback {
      */
     public void onTick(String id,Long deltaEpoch);
 
+    /**
+     * Primitive variant of {@link #onTick(java.lang.String, java.lang.Long)}
+     * called by the {@link TimerDevice}. Override it in order to keep the tick
+     * free of allocations.
+     *
+     * @param id
+     * @param deltaEpoch
+     */
+    public default void onTick(String id, long deltaEpoch) {
+        onTick(id, Long.valueOf(deltaEpoch));
+    }
+
+    /**
+     * Variant of {@link #onTick(java.lang.String, long)} called by the
+     * {@link TimerDevice}, which additionally reports the ticks shed by its
+     * {@link TimerDevice.OverloadPolicy} since the previous tick.
+     *
+     * @param id
+     * @param deltaEpoch
+     * @param missed number of ticks dropped or collapsed into this one
+     */
+    public default void onTick(String id, long deltaEpoch, long missed) {
+        onTick(id, deltaEpoch);
+    }
+
     /**
      *
      * @param configuration
      */
     public void tickerConfigurationRemoved(DeviceTickerConfiguration configuration);
 
+    /**
+     * Called once for a whole {@link DeviceTickerBulk} instead of the single
+     * updates and removals.
+     *
+     * @param updated configurations after the update
+     * @param removed configurations of the removed tickers
+     */
+    public default void tickerConfigurationsChanged(List<DeviceTickerConfiguration> updated, List<DeviceTickerConfiguration> removed) {
+        for (DeviceTickerConfiguration configuration : updated) {
+            tickerConfigurationUpdated(configuration);
+        }
+        for (DeviceTickerConfiguration configuration : removed) {
+            tickerConfigurationRemoved(configuration);
+        }
+    }
+
 }
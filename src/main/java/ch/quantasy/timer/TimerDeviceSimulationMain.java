@@ -0,0 +1,290 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays random configurations and cancels against a {@link TimerDevice}
+ * driven by a {@link VirtualSchedulerEngine} and checks the tick count and
+ * phase of every ticker as well as the tick lateness.
+ *
+ * Arguments: [tickers (10000)] [hours (1)] [seed (0)] [tier boundary in ms
+ * (0: no {@link TieredSchedulerEngine})] [engine (precise)]
+ *
+ * The engine is either 'precise', 'coarse' (a non-precise engine, where
+ * tickers lagging behind their phase at the start tick right away and keep
+ * this phase) or 'coalescing' (coarse, driven through a
+ * {@link CoalescingSchedulerEngine} as in the gateway with
+ * 'timer.coalescing').
+ *
+ * @author reto
+ */
+public class TimerDeviceSimulationMain implements TimerDeviceCallback {
+
+    private static final long START = 1500000000000L;
+    private static final int[] INTERVALS = {1000, 2500, 5000, 15000, 60000, 300000};
+
+    private final Long[] epochs;
+    private final int[] firsts;
+    private final Integer[] intervals;
+    private final Integer[] lasts;
+    private final long[] cancels;
+    private final int[] ticks;
+    private final VirtualSchedulerEngine engine;
+    private final boolean isPrecise;
+    private final boolean isCoalescing;
+    private long phaseErrors;
+    private int maxQueueSize;
+
+    public TimerDeviceSimulationMain(int tickerCount, long seed) {
+        this(tickerCount, seed, "precise");
+    }
+
+    /**
+     *
+     * @param tickerCount
+     * @param seed
+     * @param engine precise, coarse or coalescing
+     */
+    public TimerDeviceSimulationMain(int tickerCount, long seed, String engine) {
+        if (!"precise".equals(engine) && !"coarse".equals(engine) && !"coalescing".equals(engine)) {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        epochs = new Long[tickerCount];
+        firsts = new int[tickerCount];
+        intervals = new Integer[tickerCount];
+        lasts = new Integer[tickerCount];
+        cancels = new long[tickerCount];
+        ticks = new int[tickerCount];
+        isPrecise = "precise".equals(engine);
+        isCoalescing = "coalescing".equals(engine);
+        this.engine = new VirtualSchedulerEngine(START, isPrecise);
+        Random random = new Random(seed);
+        for (int i = 0; i < tickerCount; i++) {
+            firsts[i] = random.nextInt(10000);
+            epochs[i] = random.nextInt(10) == 0 ? null : START - 60000 + random.nextInt(120000);
+            cancels[i] = -1;
+            if (random.nextInt(10) == 0) {
+                //One shot
+                continue;
+            }
+            int interval = INTERVALS[random.nextInt(INTERVALS.length)];
+            intervals[i] = interval;
+            if (random.nextBoolean()) {
+                long firstTick = getFirstTick(i);
+                long epoch = getEpoch(i);
+                lasts[i] = (int) (firstTick - epoch + (long) random.nextInt(20) * interval + random.nextInt(interval));
+            }
+            if (random.nextInt(4) == 0) {
+                cancels[i] = random.nextInt(3600000);
+            }
+        }
+    }
+
+    private long getEpoch(int i) {
+        return epochs[i] == null ? START : epochs[i];
+    }
+
+    /**
+     *
+     * @param i
+     * @return time of the first tick, which is in phase with
+     * epoch/first/interval and not before the start. A non-precise engine
+     * ticks right away if the first tick is already behind.
+     */
+    private long getFirstTick(int i) {
+        long first = getEpoch(i) + firsts[i];
+        if (first >= START) {
+            return first;
+        }
+        if (intervals[i] == null || !isPrecise) {
+            return START;
+        }
+        return START + Math.floorMod(first - START, (long) intervals[i]);
+    }
+
+    private long getExpectedTicks(int i, long end) {
+        long firstTick = getFirstTick(i);
+        if (lasts[i] != null) {
+            end = Math.min(end, getEpoch(i) + lasts[i]);
+        }
+        if (cancels[i] >= 0) {
+            end = Math.min(end, START + cancels[i]);
+        }
+        if (firstTick > end) {
+            return 0;
+        }
+        if (intervals[i] == null) {
+            return 1;
+        }
+        return (end - firstTick) / intervals[i] + 1;
+    }
+
+    /**
+     *
+     * @param i
+     * @return time the ticker is removed, either by a cancel, by its final
+     * tick or by the expiry reaper, Long.MAX_VALUE if never
+     */
+    private long getRemoval(int i) {
+        long removal = Long.MAX_VALUE;
+        if (cancels[i] >= 0) {
+            removal = START + cancels[i];
+        }
+        long firstTick = getFirstTick(i);
+        if (intervals[i] == null) {
+            return Math.min(removal, firstTick);
+        }
+        if (lasts[i] != null) {
+            long deadline = getEpoch(i) + lasts[i];
+            long reaper = START + Math.max(1, (deadline - START + TimerDevice.DEFAULT_EXPIRY_REAPER_PERIOD - 1) / TimerDevice.DEFAULT_EXPIRY_REAPER_PERIOD) * TimerDevice.DEFAULT_EXPIRY_REAPER_PERIOD;
+            long finalTick = firstTick + Math.max(0, (deadline - firstTick + intervals[i] - 1) / intervals[i]) * intervals[i];
+            removal = Math.min(removal, Math.min(reaper, finalTick));
+        }
+        return removal;
+    }
+
+    public void run(long hours, long tierBoundaryMillis) {
+        TieredSchedulerEngine tieredEngine = tierBoundaryMillis > 0 ? new TieredSchedulerEngine(engine, tierBoundaryMillis, 1000, TimeUnit.MILLISECONDS) : null;
+        SchedulerEngine schedulerEngine = tieredEngine == null ? engine : tieredEngine;
+        CoalescingSchedulerEngine coalescingEngine = isCoalescing ? new CoalescingSchedulerEngine(schedulerEngine) : null;
+        TimerDevice device = new TimerDevice(this, coalescingEngine == null ? schedulerEngine : coalescingEngine);
+        long begin = System.nanoTime();
+        for (int i = 0; i < epochs.length; i++) {
+            device.setTickerConfiguration(new DeviceTickerConfiguration("" + i, epochs[i], firsts[i], intervals[i], lasts[i]));
+            if (cancels[i] >= 0) {
+                String id = "" + i;
+                //Half a ms after the tick of the same ms
+                engine.schedule(() -> device.cancel(new DeviceTickerCancel(id)), TimeUnit.MILLISECONDS.toNanos(cancels[i]) + 500000, TimeUnit.NANOSECONDS);
+            }
+        }
+        long configured = System.nanoTime();
+        long span = TimeUnit.HOURS.toNanos(hours) + 500000;
+        //Advanced by the minute, in order to sample the size of the engine queue
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        for (long advanced = 0; advanced < span; advanced += minute) {
+            engine.advance(Math.min(minute, span - advanced), TimeUnit.NANOSECONDS);
+            maxQueueSize = Math.max(maxQueueSize, engine.getQueueSize());
+        }
+        long simulated = System.nanoTime();
+
+        long end = START + TimeUnit.NANOSECONDS.toMillis(span);
+        long expectedTotal = 0;
+        long total = 0;
+        long countErrors = 0;
+        long alive = 0;
+        for (int i = 0; i < ticks.length; i++) {
+            long expected = getExpectedTicks(i, end);
+            expectedTotal += expected;
+            total += ticks[i];
+            if (expected != ticks[i]) {
+                if (countErrors < 10) {
+                    System.out.printf("Ticker %d: %d ticks instead of %d (epoch: %d first: %d interval: %d last: %d cancel: %d)%n",
+                            i, ticks[i], expected, getEpoch(i), firsts[i], intervals[i], lasts[i], cancels[i]);
+                }
+                countErrors++;
+            }
+            if (getRemoval(i) > end) {
+                alive++;
+            }
+        }
+        LatencyHistogram.Snapshot lateness = device.getStatistics().getTickLateness().getSnapshot();
+        System.out.printf("%d tickers, %d cancels, %d h simulated: configured in %d ms, simulated in %d ms%n",
+                ticks.length, countCancels(), hours, TimeUnit.NANOSECONDS.toMillis(configured - begin), TimeUnit.NANOSECONDS.toMillis(simulated - configured));
+        System.out.printf("ticks: %d (expected %d), count errors: %d, phase errors: %d, max lateness: %d ns, tickers: %d (expected %d)%n",
+                total, expectedTotal, countErrors, phaseErrors, lateness.getMaxNanos(), device.getTickerCount(), alive);
+        System.out.printf("engine runs: %d, max queue size: %d%n", engine.getRuns(), maxQueueSize);
+        if (tieredEngine != null) {
+            System.out.printf("coarse tier: %d wakeups, %d promotions, %d waiting%n", tieredEngine.getWakeups(), tieredEngine.getPromotions(), tieredEngine.getCoarseSize());
+        }
+        if (coalescingEngine != null) {
+            System.out.printf("coalescing groups: %d%n", coalescingEngine.getGroupCount());
+        }
+        engine.shutdown();
+    }
+
+    private long countCancels() {
+        long count = 0;
+        for (long cancel : cancels) {
+            if (cancel >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) {
+        int tickers = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long hours = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        long tierBoundary = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        String engine = args.length > 4 ? args[4] : "precise";
+        new TimerDeviceSimulationMain(tickers, seed, engine).run(hours, tierBoundary);
+    }
+
+    @Override
+    public void tickerConfigurationUpdated(DeviceTickerConfiguration configuration) {
+    }
+
+    @Override
+    public void onTick(String id, Long deltaEpoch) {
+        onTick(id, deltaEpoch.longValue());
+    }
+
+    @Override
+    public void onTick(String id, long deltaEpoch) {
+        int i = Integer.parseInt(id);
+        ticks[i]++;
+        long now = engine.currentTimeMillis();
+        if (deltaEpoch != now - getEpoch(i)) {
+            phaseErrors++;
+        } else if (intervals[i] != null && now != getFirstTick(i) && Math.floorMod(now - getFirstTick(i), (long) intervals[i]) != 0) {
+            phaseErrors++;
+        }
+    }
+
+    @Override
+    public void tickerConfigurationRemoved(DeviceTickerConfiguration configuration) {
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of a {@link TimerDevice}. All recording is lock-free.
+ *
+ * @author reto
+ */
+public class TimerDeviceStatistics {
+
+    private final LatencyHistogram tickLateness;
+    private final LatencyHistogram callbackDuration;
+    private final LongAdder schedules;
+    private final LongAdder reschedules;
+    private final LongAdder cancels;
+    private final LongAdder removals;
+    private final LongAdder ticks;
+    private final LongAdder expirations;
+    private final LongAdder shedTicks;
+    private final LongAdder deadlineUpdates;
+    private final LongAdder retimes;
+    private final LongAdder unchangedUpdates;
+
+    public TimerDeviceStatistics() {
+        tickLateness = new LatencyHistogram();
+        callbackDuration = new LatencyHistogram();
+        schedules = new LongAdder();
+        reschedules = new LongAdder();
+        cancels = new LongAdder();
+        removals = new LongAdder();
+        ticks = new LongAdder();
+        expirations = new LongAdder();
+        shedTicks = new LongAdder();
+        deadlineUpdates = new LongAdder();
+        retimes = new LongAdder();
+        unchangedUpdates = new LongAdder();
+    }
+
+    /**
+     *
+     * @return time between the ideal tick (as given by the configuration) and
+     * the actual tick
+     */
+    public LatencyHistogram getTickLateness() {
+        return tickLateness;
+    }
+
+    /**
+     *
+     * @return time spent in {@link TimerDeviceCallback#onTick(java.lang.String, long)}
+     */
+    public LatencyHistogram getCallbackDuration() {
+        return callbackDuration;
+    }
+
+    void scheduled(boolean isReschedule) {
+        if (isReschedule) {
+            reschedules.increment();
+        } else {
+            schedules.increment();
+        }
+    }
+
+    void deadlineUpdated() {
+        deadlineUpdates.increment();
+    }
+
+    void retimed() {
+        retimes.increment();
+    }
+
+    void unchanged() {
+        unchangedUpdates.increment();
+    }
+
+    void cancelled() {
+        cancels.increment();
+    }
+
+    void removed() {
+        removals.increment();
+    }
+
+    void shed() {
+        shedTicks.increment();
+    }
+
+    void expired() {
+        expirations.increment();
+    }
+
+    void ticked(long latenessNanos) {
+        ticks.increment();
+        tickLateness.record(latenessNanos);
+    }
+
+    void called(long callbackNanos) {
+        callbackDuration.record(callbackNanos);
+    }
+
+    /**
+     *
+     * @return number of tickers scheduled for the first time
+     */
+    public long getSchedules() {
+        return schedules.sum();
+    }
+
+    /**
+     *
+     * @return number of tickers re-scheduled due to a configuration update
+     */
+    public long getReschedules() {
+        return reschedules.sum();
+    }
+
+    public long getCancels() {
+        return cancels.sum();
+    }
+
+    public long getRemovals() {
+        return removals.sum();
+    }
+
+    public long getTicks() {
+        return ticks.sum();
+    }
+
+    /**
+     *
+     * @return number of updates only changing the last tick, which have been
+     * applied without rescheduling
+     */
+    public long getDeadlineUpdates() {
+        return deadlineUpdates.sum();
+    }
+
+    /**
+     *
+     * @return number of updates only changing the interval, which have been
+     * applied by rescheduling the existing task
+     */
+    public long getRetimes() {
+        return retimes.sum();
+    }
+
+    /**
+     *
+     * @return number of updates not changing anything, which have been
+     * ignored
+     */
+    public long getUnchangedUpdates() {
+        return unchangedUpdates.sum();
+    }
+
+    /**
+     *
+     * @return number of ticks dropped or collapsed by the overload policy
+     */
+    public long getShedTicks() {
+        return shedTicks.sum();
+    }
+
+    /**
+     *
+     * @return number of tickers removed by the expiry reaper
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link SchedulerEngine} based on a hashed hierarchical timing wheel. Schedule
+ * and cancel are O(1), the price is a resolution of one tick.
+ *
+ * The wheel consists of {@link #LEVELS} levels of {@link #WHEEL_SIZE} buckets
+ * each. A bucket on level 0 spans one tick, a bucket on level n spans
+ * WHEEL_SIZE^n ticks. Whenever the lower level wraps, the due bucket of the
+ * next higher level is cascaded down. Tasks further away than the whole wheel
+ * are kept in the top level and re-cascaded until they are due.
+ *
+ * All wheel manipulation is done by a single worker thread. Other threads only
+ * hand new and cancelled tasks over via lock-free queues. The tasks are run on
+ * the worker thread, hence they should be short.
+ *
+ * @author reto
+ */
+public class TimingWheelSchedulerEngine implements SchedulerEngine {
+
+    private static final int WHEEL_BITS = 8;
+    public static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    public static final int LEVELS = 4;
+
+    private static final int STATE_INIT = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket[][] wheel;
+    private final Queue<WheelTask> newTasks;
+    private final Queue<WheelTask> cancelledTasks;
+    /**
+     * Periodic tasks run within the current tick, to be re-inserted once its
+     * bucket is drained. Only accessed by the worker thread.
+     */
+    private final Bucket rearmedTasks;
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean isShutdown;
+    /**
+     * Last tick processed. Only accessed by the worker thread.
+     */
+    private long currentTick;
+
+    public TimingWheelSchedulerEngine() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     * @param tickDuration resolution of the wheel. Tasks are run at most one
+     * tickDuration late.
+     * @param unit unit of the tickDuration
+     */
+    public TimingWheelSchedulerEngine(long tickDuration, TimeUnit unit) {
+        this(tickDuration, unit, (Runnable r) -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public TimingWheelSchedulerEngine(long tickDuration, TimeUnit unit, ThreadFactory threadFactory) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[LEVELS][WHEEL_SIZE];
+        for (Bucket[] level : wheel) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Bucket();
+            }
+        }
+        this.newTasks = new ConcurrentLinkedQueue<>();
+        this.cancelledTasks = new ConcurrentLinkedQueue<>();
+        this.rearmedTasks = new Bucket();
+        this.startTime = System.nanoTime();
+        this.worker = threadFactory.newThread(this::work);
+        this.worker.start();
+    }
+
+    public long getTickDuration(TimeUnit unit) {
+        return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        return enqueue(new WheelTask(task, deadline(delay, unit), 0));
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than 0: " + period);
+        }
+        return enqueue(new WheelTask(task, deadline(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    @Override
+    public void shutdown() {
+        isShutdown = true;
+        LockSupport.unpark(worker);
+    }
+
+    private long deadline(long delay, TimeUnit unit) {
+        return System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+    }
+
+    private WheelTask enqueue(WheelTask task) {
+        if (isShutdown) {
+            throw new IllegalStateException("Engine has been shut down");
+        }
+        newTasks.add(task);
+        return task;
+    }
+
+    private void work() {
+        while (!isShutdown) {
+            long nextTick = currentTick + 1;
+            long sleepNanos = nextTick * tickNanos - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            transferCancelledTasks();
+            transferNewTasks(nextTick);
+            processTick(nextTick);
+            currentTick = nextTick;
+        }
+    }
+
+    private void transferNewTasks(long baseTick) {
+        WheelTask task;
+        while ((task = newTasks.poll()) != null) {
+            if (task.state.get() == STATE_INIT) {
+                insert(task, baseTick);
+            }
+        }
+    }
+
+    private void transferCancelledTasks() {
+        WheelTask task;
+        while ((task = cancelledTasks.poll()) != null) {
+            if (task.bucket != null) {
+                task.bucket.remove(task);
+            }
+        }
+    }
+
+    /**
+     * Puts the task into the bucket responsible for its deadline, seen from the
+     * baseTick, which is the next tick to be processed.
+     */
+    private void insert(WheelTask task, long baseTick) {
+        long deadlineTick = Math.max(baseTick, (task.deadline + tickNanos - 1) / tickNanos);
+        long delta = deadlineTick - baseTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        long slotTick = deadlineTick;
+        if (delta >= (1L << (WHEEL_BITS * LEVELS))) {
+            //Beyond the wheel: park it in the farthest bucket, it will be re-cascaded.
+            slotTick = baseTick + (1L << (WHEEL_BITS * LEVELS)) - 1;
+        }
+        wheel[level][(int) ((slotTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(task);
+    }
+
+    private void processTick(long tick) {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            cascade(wheel[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)], tick);
+        }
+        Bucket bucket = wheel[0][(int) (tick & WHEEL_MASK)];
+        WheelTask task;
+        while ((task = bucket.poll()) != null) {
+            expire(task);
+        }
+        //A period of a multiple of the wheel size maps to the bucket just drained
+        while ((task = rearmedTasks.poll()) != null) {
+            insert(task, tick + 1);
+        }
+    }
+
+    private void cascade(Bucket bucket, long tick) {
+        WheelTask task;
+        while ((task = bucket.poll()) != null) {
+            insert(task, tick);
+        }
+    }
+
+    private void expire(WheelTask task) {
+        if (task.period == 0) {
+            if (!task.state.compareAndSet(STATE_INIT, STATE_EXPIRED)) {
+                return;
+            }
+        } else if (task.state.get() != STATE_INIT) {
+            return;
+        }
+        try {
+            task.task.run();
+        } catch (Throwable th) {
+            Logger.getLogger(TimingWheelSchedulerEngine.class.getName()).log(Level.SEVERE, null, th);
+        }
+        if (task.period > 0 && task.state.get() == STATE_INIT) {
+            task.deadline += task.period;
+            rearmedTasks.add(task);
+        }
+    }
+
+    private final class WheelTask implements ScheduledTask {
+
+        private final Runnable task;
+        private final long period;
+        private final AtomicInteger state;
+        private long deadline;
+        private Bucket bucket;
+        private WheelTask previous;
+        private WheelTask next;
+
+        public WheelTask(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+            this.state = new AtomicInteger(STATE_INIT);
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_INIT, STATE_CANCELLED)) {
+                return false;
+            }
+            cancelledTasks.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+    }
+
+    /**
+     * Doubly linked list of tasks, allowing O(1) removal. Only accessed by the
+     * worker thread.
+     */
+    private static final class Bucket {
+
+        private WheelTask head;
+        private WheelTask tail;
+
+        public void add(WheelTask task) {
+            task.bucket = this;
+            task.previous = tail;
+            task.next = null;
+            if (tail == null) {
+                head = task;
+            } else {
+                tail.next = task;
+            }
+            tail = task;
+        }
+
+        public void remove(WheelTask task) {
+            if (task.previous == null) {
+                head = task.next;
+            } else {
+                task.previous.next = task.next;
+            }
+            if (task.next == null) {
+                tail = task.previous;
+            } else {
+                task.next.previous = task.previous;
+            }
+            task.previous = null;
+            task.next = null;
+            task.bucket = null;
+        }
+
+        public WheelTask poll() {
+            WheelTask task = head;
+            if (task != null) {
+                remove(task);
+            }
+            return task;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SchedulerEngine} running on virtual time. Time only passes by
+ * {@link #advance(long, java.util.concurrent.TimeUnit)}, which runs all tasks
+ * due within the advanced span in the calling thread, in order of their
+ * deadlines (and of their scheduling for equal deadlines). Each task runs with
+ * the clock set exactly to its deadline, so hours of ticking are simulated
+ * within milliseconds, reproducibly.
+ *
+ * Although the tasks always run exactly at their deadlines, the engine can
+ * claim not to be precise, so the {@link TimerDevice} takes the path it takes
+ * for the ordinary (non-precise) engines.
+ *
+ * @author reto
+ */
+public class VirtualSchedulerEngine implements SchedulerEngine, TimerClock {
+
+    private final long startMillis;
+    private final boolean isPrecise;
+    private final PriorityQueue<VirtualTask> queue;
+    private long nanos;
+    private long sequence;
+    private long runs;
+    private boolean isShutdown;
+
+    public VirtualSchedulerEngine() {
+        this(0);
+    }
+
+    /**
+     *
+     * @param startMillis wall time in ms since Unix epoch the virtual clock
+     * starts at
+     */
+    public VirtualSchedulerEngine(long startMillis) {
+        this(startMillis, true);
+    }
+
+    /**
+     *
+     * @param startMillis wall time in ms since Unix epoch the virtual clock
+     * starts at
+     * @param isPrecise false in order to emulate a non-precise engine
+     */
+    public VirtualSchedulerEngine(long startMillis, boolean isPrecise) {
+        this.startMillis = startMillis;
+        this.isPrecise = isPrecise;
+        this.queue = new PriorityQueue<>();
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return nanos;
+    }
+
+    @Override
+    public TimerClock getClock() {
+        return this;
+    }
+
+    /**
+     * The tasks run exactly at their deadlines, whatever is returned here.
+     *
+     * @return true unless a non-precise engine is emulated
+     */
+    @Override
+    public boolean isPrecise() {
+        return isPrecise;
+    }
+
+    @Override
+    public ScheduledTask schedule(Runnable task, long delay, TimeUnit unit) {
+        return enqueue(task, unit.toNanos(Math.max(0, delay)), 0);
+    }
+
+    @Override
+    public ScheduledTask scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        return enqueue(task, unit.toNanos(Math.max(0, initialDelay)), unit.toNanos(period));
+    }
+
+    private synchronized ScheduledTask enqueue(Runnable task, long delayNanos, long periodNanos) {
+        VirtualTask virtualTask = new VirtualTask(task, nanos + delayNanos, periodNanos);
+        if (!isShutdown) {
+            virtualTask.sequence = ++sequence;
+            queue.add(virtualTask);
+        } else {
+            virtualTask.isCancelled = true;
+        }
+        return virtualTask;
+    }
+
+    /**
+     * Lets the given time pass, running all tasks due until then. Tasks
+     * scheduled by the running tasks are run as well, if they are due within
+     * the span.
+     *
+     * @param duration
+     * @param unit
+     * @return number of task runs
+     */
+    public long advance(long duration, TimeUnit unit) {
+        long target;
+        synchronized (this) {
+            target = nanos + unit.toNanos(Math.max(0, duration));
+        }
+        long count = 0;
+        while (true) {
+            VirtualTask task;
+            synchronized (this) {
+                task = queue.peek();
+                if (task == null || task.deadline - target > 0) {
+                    nanos = target;
+                    return count;
+                }
+                queue.poll();
+                if (task.isCancelled) {
+                    continue;
+                }
+                nanos = task.deadline;
+            }
+            task.task.run();
+            count++;
+            synchronized (this) {
+                runs++;
+                if (task.period > 0 && !task.isCancelled && !isShutdown) {
+                    task.deadline += task.period;
+                    task.sequence = ++sequence;
+                    queue.add(task);
+                } else {
+                    task.isDone = true;
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return number of scheduled (possibly cancelled but not yet discarded)
+     * tasks
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     *
+     * @return total number of task runs
+     */
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        isShutdown = true;
+        for (VirtualTask task : queue) {
+            task.isCancelled = true;
+        }
+        queue.clear();
+    }
+
+    private class VirtualTask implements ScheduledTask, Comparable<VirtualTask> {
+
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private long sequence;
+        private boolean isCancelled;
+        private boolean isDone;
+
+        VirtualTask(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (VirtualSchedulerEngine.this) {
+                if (isCancelled || isDone) {
+                    return false;
+                }
+                isCancelled = true;
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            synchronized (VirtualSchedulerEngine.this) {
+                return isCancelled;
+            }
+        }
+
+        @Override
+        public int compareTo(VirtualTask o) {
+            int order = Long.compare(deadline, o.deadline);
+            return order != 0 ? order : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.timer.DeviceTickerConfiguration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Charging of the intent messages against the intent rate, apart from the
+ * admission of their configurations.
+ *
+ * @author reto
+ */
+public class ClientQuotasTest {
+
+    @Test
+    public void bulkIsChargedOnce() {
+        //One intent per 1000 s, hence the bucket is not refilled during the test
+        ClientQuotas quotas = new ClientQuotas(100, 0, 0, 0.001, 1);
+        assertNull(quotas.admitIntent("client"));
+        for (int i = 0; i < 100; i++) {
+            assertNull(quotas.admit("client", new DeviceTickerConfiguration("client/" + i, null, null, 1000, null), null));
+        }
+        assertEquals(ClientQuotas.Rejection.TICKERS, quotas.admit("client", new DeviceTickerConfiguration("client/100", null, null, 1000, null), null));
+        assertEquals(100, quotas.getTickers("client"));
+        assertEquals(ClientQuotas.Rejection.INTENT_RATE, quotas.admitIntent("client"));
+        assertEquals(2, quotas.getRejections("client"));
+    }
+
+    @Test
+    public void renewedSubscriptionIsCountedOnce() {
+        ClientQuotas quotas = new ClientQuotas(1, 0, 0, 0, 1);
+        DeviceTickerConfiguration subscription = new DeviceTickerConfiguration("client/a", null, null, 1000, null);
+        assertNull(quotas.admitSubscription("client", subscription));
+        assertNull(quotas.admitSubscription("client", subscription));
+        assertEquals(1, quotas.getTickers("client"));
+        quotas.releaseSubscription("client/a");
+        assertEquals(0, quotas.getTickers("client"));
+    }
+}
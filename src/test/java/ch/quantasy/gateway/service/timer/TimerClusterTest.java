@@ -0,0 +1,159 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.gateway.service.timer;
+
+import ch.quantasy.timer.DeviceTickerConfiguration;
+import ch.quantasy.timer.ShardedTimerDevice;
+import ch.quantasy.timer.TimerDeviceCallback;
+import ch.quantasy.timer.VirtualSchedulerEngine;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Handoff of the tickers between two nodes joining and leaving a cluster, the
+ * status messages between the nodes being delivered by hand.
+ *
+ * @author reto
+ */
+public class TimerClusterTest {
+
+    private static final long START = 1500000000000L;
+
+    private VirtualSchedulerEngine engine;
+    private Map<String, List<Long>> ticks;
+    private TimerCluster clusterA;
+    private TimerCluster clusterB;
+    private ShardedTimerDevice deviceA;
+    private ShardedTimerDevice deviceB;
+
+    @Before
+    public void setUp() {
+        engine = new VirtualSchedulerEngine(START);
+        ticks = new HashMap<>();
+        clusterA = new TimerCluster("A", 10000);
+        clusterB = new TimerCluster("B", 10000);
+        deviceA = new ShardedTimerDevice(new RecordingCallback(), engine);
+        deviceB = new ShardedTimerDevice(new RecordingCallback(), engine);
+    }
+
+    @Test
+    public void tickersAreHandedOffInPhase() {
+        for (int i = 0; i < 20; i++) {
+            deviceA.setTickerConfiguration(new DeviceTickerConfiguration("interval/" + i, START, 0, 1000, null));
+            deviceA.setTickerConfiguration(new DeviceTickerConfiguration("oneShot/" + i, START, 30000 + i, null, null));
+        }
+        engine.advance(10500, TimeUnit.MILLISECONDS);
+
+        assertTrue(clusterA.heartbeat("B", START + 10500));
+        assertTrue(clusterB.heartbeat("A", START + 10500));
+        List<String> released = clusterA.rebalance(deviceA, null);
+        assertEquals(0, clusterB.rebalance(deviceB, null).size());
+        assertNotEquals(0, released.size());
+        assertNotEquals(0, deviceA.getTickerCount());
+        assertEquals(40, deviceA.getTickerCount() + deviceB.getTickerCount());
+        for (String id : released) {
+            assertTrue(deviceB.hasTicker(id));
+        }
+        engine.advance(20000, TimeUnit.MILLISECONDS);
+
+        //B shuts down
+        for (DeviceTickerConfiguration configuration : deviceB.getConfigurations()) {
+            deviceB.release(configuration.getId());
+        }
+        assertTrue(clusterA.leave("B"));
+        assertEquals(0, clusterA.rebalance(deviceA, null).size());
+        for (String id : released) {
+            //The one-shots have ticked meanwhile
+            assertEquals(id, id.startsWith("interval/"), deviceA.hasTicker(id));
+        }
+        engine.advance(20000, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 20; i++) {
+            assertTicks("interval/" + i, 0, 1000, 51);
+            assertTicks("oneShot/" + i, 30000 + i, 0, 1);
+        }
+    }
+
+    private void assertTicks(String id, long first, long interval, int count) {
+        List<Long> times = ticks.get(id);
+        assertEquals(id, count, times == null ? 0 : times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(id, Long.valueOf(START + first + i * interval), times.get(i));
+        }
+    }
+
+    /**
+     * Records the ticks and passes the statuses on to both nodes
+     */
+    private class RecordingCallback implements TimerDeviceCallback {
+
+        @Override
+        public void tickerConfigurationUpdated(DeviceTickerConfiguration configuration) {
+            clusterA.configured(configuration);
+            clusterB.configured(configuration);
+        }
+
+        @Override
+        public void onTick(String id, Long deltaEpoch) {
+            onTick(id, deltaEpoch.longValue());
+        }
+
+        @Override
+        public void onTick(String id, long deltaEpoch) {
+            ticks.computeIfAbsent(id, (key) -> new ArrayList<>()).add(engine.currentTimeMillis());
+        }
+
+        @Override
+        public void tickerConfigurationRemoved(DeviceTickerConfiguration configuration) {
+            clusterA.removed(configuration.getId());
+            clusterB.removed(configuration.getId());
+        }
+    }
+}
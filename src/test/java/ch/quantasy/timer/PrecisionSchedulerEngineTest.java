@@ -0,0 +1,112 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author reto
+ */
+public class PrecisionSchedulerEngineTest {
+
+    private PrecisionSchedulerEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new PrecisionSchedulerEngine(50, TimeUnit.MICROSECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun() throws InterruptedException {
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        List<SchedulerEngine.ScheduledTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            tasks.add(engine.schedule(cancelledRuns::incrementAndGet, 1000 + i % 50, TimeUnit.MILLISECONDS));
+        }
+        tasks.add(engine.scheduleAtFixedRate(cancelledRuns::incrementAndGet, 1000, 5, TimeUnit.MILLISECONDS));
+        for (SchedulerEngine.ScheduledTask task : tasks) {
+            assertTrue(task.cancel());
+            assertFalse(task.cancel());
+            assertTrue(task.isCancelled());
+        }
+        CountDownLatch ran = new CountDownLatch(1);
+        engine.schedule(ran::countDown, 1200, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(0, cancelledRuns.get());
+    }
+
+    @Test
+    public void periodicTaskCancelledWhileRunningStops() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        SchedulerEngine.ScheduledTask[] task = new SchedulerEngine.ScheduledTask[1];
+        CountDownLatch scheduled = new CountDownLatch(1);
+        task[0] = engine.scheduleAtFixedRate(() -> {
+            try {
+                scheduled.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (runs.incrementAndGet() == 3) {
+                task[0].cancel();
+            }
+        }, 0, 2, TimeUnit.MILLISECONDS);
+        scheduled.countDown();
+        Thread.sleep(100);
+        assertEquals(3, runs.get());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author reto
+ */
+public class TickDispatcherTest {
+
+    private TickDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new TickDispatcher(1, 1, TickDispatcher.OverflowPolicy.CALLER_RUNS);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void callerRunKeepsOrderOfKey() throws InterruptedException {
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch unblocked = new CountDownLatch(1);
+        dispatcher.dispatch("other", () -> {
+            blocking.countDown();
+            await(unblocked);
+        });
+        assertTrue(blocking.await(5, TimeUnit.SECONDS));
+        //Fills the queue of the single worker
+        dispatcher.dispatch("other", () -> {
+        });
+
+        List<String> events = new CopyOnWriteArrayList<>();
+        CountDownLatch callerRunning = new CountDownLatch(1);
+        Thread caller = new Thread(() -> dispatcher.dispatch("key", () -> {
+            events.add("first started");
+            callerRunning.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            events.add("first ended");
+        }));
+        caller.start();
+        assertTrue(callerRunning.await(5, TimeUnit.SECONDS));
+
+        unblocked.countDown();
+        CountDownLatch secondRan = new CountDownLatch(1);
+        assertTrue(dispatcher.dispatch("key", () -> {
+            events.add("second");
+            secondRan.countDown();
+        }));
+        assertTrue(secondRan.await(5, TimeUnit.SECONDS));
+        caller.join();
+        assertEquals(Arrays.asList("first started", "first ended", "second"), events);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author reto
+ */
+public class TickerJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsSpanSegmentsAndOutgrowTheRecordBuffer() throws IOException {
+        Path directory = folder.newFolder("journal").toPath();
+        StringBuilder longId = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            longId.append('x');
+        }
+        Map<String, DeviceTickerConfiguration> expected = new HashMap<>();
+        try (TickerJournal journal = new TickerJournal(directory, 1024)) {
+            for (int i = 0; i < 200; i++) {
+                DeviceTickerConfiguration configuration = new DeviceTickerConfiguration("ticker/" + i, 1500000000000L + i, i, 1000 + i, null);
+                journal.configured(configuration);
+                expected.put(configuration.getId(), configuration);
+            }
+            DeviceTickerConfiguration cron = new DeviceTickerConfiguration(longId.toString(), 1500000000000L, 0, null, "0 8 * * MON-FRI", "Europe/Zurich");
+            journal.configured(cron);
+            expected.put(cron.getId(), cron);
+            for (int i = 0; i < 200; i += 2) {
+                journal.removed("ticker/" + i);
+                expected.remove("ticker/" + i);
+            }
+            journal.force();
+        }
+        try (TickerJournal journal = new TickerJournal(directory, 1024)) {
+            assertConfigurations(expected, journal.load());
+            List<DeviceTickerConfiguration> current = new ArrayList<>(expected.values());
+            journal.compact(() -> current);
+        }
+        try (TickerJournal journal = new TickerJournal(directory, 1024)) {
+            assertConfigurations(expected, journal.load());
+        }
+    }
+
+    private static void assertConfigurations(Map<String, DeviceTickerConfiguration> expected, Collection<DeviceTickerConfiguration> loaded) {
+        assertEquals(expected.size(), loaded.size());
+        for (DeviceTickerConfiguration configuration : loaded) {
+            assertEquals(expected.get(configuration.getId()).toString(), configuration.toString());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author reto
+ */
+public class TieredSchedulerEngineTest {
+
+    private VirtualSchedulerEngine virtualEngine;
+    private TieredSchedulerEngine engine;
+
+    @Before
+    public void setUp() {
+        virtualEngine = new VirtualSchedulerEngine(0);
+        engine = new TieredSchedulerEngine(virtualEngine, 1000, 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void cancelInCoarseTierUnfilesTask() {
+        AtomicInteger runs = new AtomicInteger();
+        SchedulerEngine.ScheduledTask task = engine.schedule(runs::incrementAndGet, 3000, TimeUnit.MILLISECONDS);
+        assertEquals(1, engine.getCoarseSize());
+        assertTrue(task.cancel());
+        assertFalse(task.cancel());
+        assertTrue(task.isCancelled());
+        assertEquals(0, engine.getCoarseSize());
+        virtualEngine.advance(5000, TimeUnit.MILLISECONDS);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void cancelAfterPromotionStopsLongPeriod() {
+        AtomicInteger runs = new AtomicInteger();
+        SchedulerEngine.ScheduledTask[] task = new SchedulerEngine.ScheduledTask[1];
+        task[0] = engine.scheduleAtFixedRate(() -> {
+            if (runs.incrementAndGet() == 2) {
+                task[0].cancel();
+            }
+        }, 2000, 2000, TimeUnit.MILLISECONDS);
+        virtualEngine.advance(20000, TimeUnit.MILLISECONDS);
+        assertEquals(2, runs.get());
+        assertEquals(0, engine.getCoarseSize());
+    }
+
+    @Test
+    public void cancelAfterPromotionStopsShortPeriod() {
+        AtomicInteger runs = new AtomicInteger();
+        SchedulerEngine.ScheduledTask task = engine.scheduleAtFixedRate(runs::incrementAndGet, 2000, 100, TimeUnit.MILLISECONDS);
+        virtualEngine.advance(2450, TimeUnit.MILLISECONDS);
+        assertEquals(5, runs.get());
+        assertTrue(task.cancel());
+        virtualEngine.advance(2000, TimeUnit.MILLISECONDS);
+        assertEquals(5, runs.get());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Warm restart of a {@link TimerDevice} from its {@link TickerJournal}.
+ *
+ * @author reto
+ */
+public class TimerDeviceJournalTest {
+
+    private static final long START = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("journal").toPath();
+    }
+
+    @Test
+    public void replayKeepsPendingOneShot() throws IOException {
+        VirtualSchedulerEngine engine = new VirtualSchedulerEngine(START);
+        TimerDevice device = new TimerDevice(new RecordingCallback(engine), engine);
+        TickerJournal journal = new TickerJournal(directory, 1 << 16);
+        device.setJournal(journal, TimeUnit.HOURS.toMillis(1));
+        device.setTickerConfiguration(new DeviceTickerConfiguration("oneShot", START, 60000, null, null));
+        device.setTickerConfiguration(new DeviceTickerConfiguration("interval", START, 0, 1000, null));
+        device.setTickerConfiguration(new DeviceTickerConfiguration("finished", START, 0, 1000, 5000));
+        engine.advance(10, TimeUnit.SECONDS);
+        journal.close();
+        engine.shutdown();
+
+        VirtualSchedulerEngine restartedEngine = new VirtualSchedulerEngine(START + 20000);
+        RecordingCallback callback = new RecordingCallback(restartedEngine);
+        TimerDevice restarted = new TimerDevice(callback, restartedEngine);
+        TickerJournal restartedJournal = new TickerJournal(directory, 1 << 16);
+        restarted.setJournal(restartedJournal, TimeUnit.HOURS.toMillis(1));
+        assertEquals(2, restarted.getTickerCount());
+        assertNull(restarted.getTickerConfiguration("finished"));
+
+        restartedEngine.advance(50, TimeUnit.SECONDS);
+        assertEquals(1, callback.count("oneShot"));
+        assertEquals(Long.valueOf(START + 60000), callback.first("oneShot"));
+        //In phase from 20 s up to and including 70 s
+        assertEquals(51, callback.count("interval"));
+        assertEquals(0, callback.count("finished"));
+        restartedJournal.close();
+        restartedEngine.shutdown();
+    }
+
+    @Test
+    public void replaySkipsPassedOneShot() throws IOException {
+        VirtualSchedulerEngine engine = new VirtualSchedulerEngine(START);
+        TimerDevice device = new TimerDevice(new RecordingCallback(engine), engine);
+        TickerJournal journal = new TickerJournal(directory, 1 << 16);
+        device.setJournal(journal, TimeUnit.HOURS.toMillis(1));
+        device.setTickerConfiguration(new DeviceTickerConfiguration("oneShot", START, 60000, null, null));
+        journal.close();
+        engine.shutdown();
+
+        //Down while the tick was due
+        VirtualSchedulerEngine restartedEngine = new VirtualSchedulerEngine(START + 70000);
+        RecordingCallback callback = new RecordingCallback(restartedEngine);
+        TimerDevice restarted = new TimerDevice(callback, restartedEngine);
+        TickerJournal restartedJournal = new TickerJournal(directory, 1 << 16);
+        restarted.setJournal(restartedJournal, TimeUnit.HOURS.toMillis(1));
+        restartedEngine.advance(10, TimeUnit.SECONDS);
+        assertEquals(0, restarted.getTickerCount());
+        assertEquals(0, callback.count("oneShot"));
+        restartedJournal.close();
+        restartedEngine.shutdown();
+    }
+
+    static class RecordingCallback implements TimerDeviceCallback {
+
+        private final TimerClock clock;
+        private final List<String> ids;
+        private final List<Long> times;
+
+        RecordingCallback(TimerClock clock) {
+            this.clock = clock;
+            this.ids = new ArrayList<>();
+            this.times = new ArrayList<>();
+        }
+
+        synchronized int count(String id) {
+            int count = 0;
+            for (String tickId : ids) {
+                if (tickId.equals(id)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        synchronized Long first(String id) {
+            int index = ids.indexOf(id);
+            return index < 0 ? null : times.get(index);
+        }
+
+        @Override
+        public void tickerConfigurationUpdated(DeviceTickerConfiguration configuration) {
+        }
+
+        @Override
+        public void onTick(String id, Long deltaEpoch) {
+            onTick(id, deltaEpoch.longValue());
+        }
+
+        @Override
+        public synchronized void onTick(String id, long deltaEpoch) {
+            ids.add(id);
+            times.add(clock.currentTimeMillis());
+        }
+
+        @Override
+        public void tickerConfigurationRemoved(DeviceTickerConfiguration configuration) {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *   "TimerMqWay"
+ *
+ *    TimerMqWay(tm): A gateway to provide a universal timer ability.
+ *
+ *    Copyright (c) 2016 Bern University of Applied Sciences (BFH),
+ *    Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *    Quellgasse 21, CH-2501 Biel, Switzerland
+ *
+ *    Licensed under Dual License consisting of:
+ *    1. GNU Affero General Public License (AGPL) v3
+ *    and
+ *    2. Commercial license
+ *
+ *
+ *    1. This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Affero General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Affero General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Affero General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *    2. Licensees holding valid commercial licenses for TiMqWay may use this file in
+ *     accordance with the commercial license agreement provided with the
+ *     Software or, alternatively, in accordance with the terms contained in
+ *     a written agreement between you and Bern University of Applied Sciences (BFH),
+ *     Research Institute for Security in the Information Society (RISIS), Wireless Communications & Secure Internet of Things (WiCom & SIoT),
+ *     Quellgasse 21, CH-2501 Biel, Switzerland.
+ *
+ *
+ *     For further information contact <e-mail: reto.koenig@bfh.ch>
+ *
+ *
+ */
+package ch.quantasy.timer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author reto
+ */
+public class TimingWheelSchedulerEngineTest {
+
+    private TimingWheelSchedulerEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new TimingWheelSchedulerEngine(1, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void periodOfWheelSizeRunsOncePerPeriod() throws InterruptedException {
+        assertPeriod(TimingWheelSchedulerEngine.WHEEL_SIZE);
+    }
+
+    @Test
+    public void periodOfWheelSizeMultipleRunsOncePerPeriod() throws InterruptedException {
+        assertPeriod(2 * TimingWheelSchedulerEngine.WHEEL_SIZE);
+    }
+
+    @Test
+    public void shortPeriodRunsOncePerPeriod() throws InterruptedException {
+        assertPeriod(50);
+    }
+
+    private void assertPeriod(long periodMillis) throws InterruptedException {
+        List<Long> runs = new CopyOnWriteArrayList<>();
+        SchedulerEngine.ScheduledTask task = engine.scheduleAtFixedRate(() -> runs.add(System.nanoTime()), 10, periodMillis, TimeUnit.MILLISECONDS);
+        Thread.sleep(10 + 4 * periodMillis + periodMillis / 2);
+        task.cancel();
+        assertEquals("runs: " + runs.size(), 5, runs.size());
+        for (int i = 1; i < runs.size(); i++) {
+            long gapMillis = TimeUnit.NANOSECONDS.toMillis(runs.get(i) - runs.get(i - 1));
+            assertTrue("gap of " + gapMillis + " ms between run " + (i - 1) + " and " + i, gapMillis > periodMillis / 2 && gapMillis < periodMillis * 3 / 2);
+        }
+    }
+
+    @Test
+    public void oneShotRunsOnce() throws InterruptedException {
+        List<Long> runs = new CopyOnWriteArrayList<>();
+        engine.schedule(() -> runs.add(System.nanoTime()), TimingWheelSchedulerEngine.WHEEL_SIZE, TimeUnit.MILLISECONDS);
+        Thread.sleep(3 * TimingWheelSchedulerEngine.WHEEL_SIZE);
+        assertEquals(1, runs.size());
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws InterruptedException {
+        List<Long> runs = new CopyOnWriteArrayList<>();
+        SchedulerEngine.ScheduledTask task = engine.scheduleAtFixedRate(() -> runs.add(System.nanoTime()), 50, 50, TimeUnit.MILLISECONDS);
+        assertTrue(task.cancel());
+        assertTrue(task.isCancelled());
+        Thread.sleep(200);
+        assertEquals(0, runs.size());
+    }
+}